@@ -14,11 +14,11 @@ import net.minecraft.screen.ScreenHandlerType;
 import net.minecraft.screen.slot.SlotActionType;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
-import net.minecraft.util.collection.DefaultedList;
 
+import java.util.BitSet;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandler {
     private final ServerPlayerEntity admin;
@@ -33,6 +33,7 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
     private static final long SAVE_DELAY = 200;
 
     private volatile boolean isInternalUpdate = false;
+    private final SlotVersions slotVersions = new SlotVersions(54); // 6 filas como máximo
     private String observerId;
 
     public BackpackAdminEditScreenHandler(int syncId, PlayerInventory playerInventory, ServerPlayerEntity admin, ServerPlayerEntity targetPlayer, int backpackId) {
@@ -46,6 +47,9 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
         this.backpackId = backpackId;
         this.backpackData = BackpackManager.getBackpack(targetPlayer.getUuid(), backpackId);
         this.backpackInventory = (SimpleInventory) inventory;
+        if (backpackData != null) {
+            backpackData.openViewer();
+        }
 
         BackpackSyncManager.registerAdminObserver(admin, targetPlayer.getUuid(), backpackId);
         this.observerId = "admin_" + admin.getUuid() + "_" + targetPlayer.getUuid() + "_" + backpackId;
@@ -61,7 +65,7 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
         return targetPlayer.getUuid();
     }
 
-    public void syncInventory(DefaultedList<ItemStack> newInventory) {
+    public void syncInventory(BackpackSyncManager.InventoryDelta delta) {
         if (isInternalUpdate) {
             return;
         }
@@ -71,9 +75,11 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
             int maxSlot = backpackInventory.size() - 1;
 
             boolean hasActualChanges = false;
-            for (int i = 0; i < Math.min(maxSlot, newInventory.size()); i++) {
+            // Solo los slots que cambiaron y que ningún delta más nuevo ha escrito ya
+            BitSet slots = slotVersions.accept(delta.slots(), delta.version());
+            for (int i = slots.nextSetBit(0); i >= 0 && i < maxSlot; i = slots.nextSetBit(i + 1)) {
                 ItemStack currentStack = backpackInventory.getStack(i);
-                ItemStack newStack = newInventory.get(i);
+                ItemStack newStack = delta.stacks()[i];
 
                 if (!ItemStack.areEqual(currentStack, newStack)) {
                     backpackInventory.setStack(i, newStack.copy());
@@ -178,18 +184,9 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
             if (!clickedStack.isEmpty() && customData.copyNbt().contains("admin_back_button")) {
                 if (actionType == SlotActionType.PICKUP && button == 0) {
                     ((ServerPlayerEntity) player).closeHandledScreen();
-                    CompletableFuture.runAsync(() -> {
-                        try {
-                            Thread.sleep(100);
-                            if (BackpacksMod.getServer() != null) {
-                                BackpacksMod.getServer().execute(() -> {
-                                    BackpackAdminViewScreenHandler.openAdminView((ServerPlayerEntity) player, targetPlayer);
-                                });
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    });
+                    BackpackScheduler.runLaterOnServer(() -> {
+                        BackpackAdminViewScreenHandler.openAdminView((ServerPlayerEntity) player, targetPlayer);
+                    }, 100);
                     return;
                 }
                 return;
@@ -271,28 +268,24 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
     private void markChangesAndNotify() {
         if (isInternalUpdate) return;
 
-        saveCurrentInventoryToBackpack();
+        BitSet changedSlots = saveCurrentInventoryToBackpack();
 
         hasChanges = true;
         BackpackManager.markBackpackDirty(targetPlayer.getUuid());
 
-        BackpackSyncManager.notifyInventoryChange(targetPlayer.getUuid(), backpackId, admin.getUuid());
+        BackpackSyncManager.notifyInventoryChange(targetPlayer.getUuid(), backpackId, admin.getUuid(), changedSlots);
 
         long now = System.currentTimeMillis();
         if (now - lastSave > SAVE_DELAY) {
             lastSave = now;
-            CompletableFuture.runAsync(() -> {
-                try {
-                    Thread.sleep(50);
-                    BackpackManager.forcePlayerSave(targetPlayer.getUuid());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
+            BackpackScheduler.schedule(BackpackScheduler.Lane.HOUSEKEEPING,
+                    () -> BackpackManager.forcePlayerSave(targetPlayer.getUuid()), 50, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void saveCurrentInventoryToBackpack() {
+    // Devuelve los slots copiados a la mochila
+    private BitSet saveCurrentInventoryToBackpack() {
+        BitSet changedSlots = new BitSet();
         if (backpackData != null && backpackInventory != null) {
             try {
                 int maxSlot = backpackInventory.size() - 1;
@@ -304,6 +297,7 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
 
                     if (!ItemStack.areEqual(currentStack, backpackStack)) {
                         backpackData.getInventory().set(i, currentStack.copy());
+                        changedSlots.set(i);
                         hasActualChanges = true;
                     }
                 }
@@ -317,6 +311,7 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
                 LanguageManager.sendMessage(admin, "errorSavingData");
             }
         }
+        return changedSlots;
     }
 
     @Override
@@ -352,6 +347,15 @@ public class BackpackAdminEditScreenHandler extends GenericContainerScreenHandle
                     " of player " + targetPlayer.getName().getString());
         }
 
+        // NUEVO: Sin cambios, los items vuelven a su forma codificada hasta la próxima apertura
+        // CORREGIDO: Solo al cerrar la última pantalla abierta sobre la mochila (releaseInventory lo comprueba)
+        if (backpackData != null) {
+            backpackData.closeViewer();
+            if (ConfigManager.getConfig().releaseInventoriesOnClose) {
+                backpackData.releaseInventory();
+            }
+        }
+
         super.onClosed(player);
     }
 
@@ -39,28 +39,22 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
     }
 
     private void populateAdminMenu() {
-        CompletableFuture.runAsync(() -> {
-            try {
-                MongoBackpackManager.PlayerBackpacks playerBackpacks = BackpackManager.getPlayerBackpacks(targetPlayer.getUuid());
-
-                if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() -> populateMenuWithData(playerBackpacks));
-                }
-
-            } catch (Exception e) {
-                if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() -> {
-                        // ACTUALIZADO: Usar sistema de idiomas
-                        LanguageManager.sendMessage(admin, "errorLoadingData");
-                        admin.closeHandledScreen();
-                    });
-                }
-            }
-        });
+        // Solo el índice summary: el menú no necesita decodificar los items
+        BackpacksMod.getMongoManager().getBackpackSummariesAsync(targetPlayer.getUuid())
+                .thenAccept(summaries -> MainThreadTaskQueue.post(() -> populateMenuWithData(summaries)))
+                .exceptionally(throwable -> {
+                    if (BackpacksMod.getServer() != null) {
+                        MainThreadTaskQueue.post(() -> {
+                            // ACTUALIZADO: Usar sistema de idiomas
+                            LanguageManager.sendMessage(admin, "errorLoadingData");
+                            admin.closeHandledScreen();
+                        });
+                    }
+                    return null;
+                });
     }
 
-    private void populateMenuWithData(MongoBackpackManager.PlayerBackpacks playerBackpacks) {
-        Map<Integer, MongoBackpackManager.BackpackData> backpacks = playerBackpacks.getAllBackpacks();
+    private void populateMenuWithData(Map<Integer, BackpackSummary> backpacks) {
 
         // Limpiar inventario usando los slots
         for (int i = 0; i < 54; i++) {
@@ -70,30 +64,18 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
         String playerName = targetPlayer.getName().getString();
 
         int slot = 0;
-        for (Map.Entry<Integer, MongoBackpackManager.BackpackData> entry : backpacks.entrySet()) {
+        for (Map.Entry<Integer, BackpackSummary> entry : backpacks.entrySet()) {
             if (slot >= 54) break;
 
-            MongoBackpackManager.BackpackData backpack = entry.getValue();
-
-            ItemStack backpackItem = backpack.getIcon().copy();
-            if (backpackItem.isEmpty()) {
-                backpackItem = new ItemStack(Items.CHEST);
-            }
+            BackpackSummary backpack = entry.getValue();
 
-            // Calcular estadísticas
-            int itemCount = 0;
-            int emptySlots = 0;
-            for (ItemStack stack : backpack.getInventory()) {
-                if (stack.isEmpty()) {
-                    emptySlots++;
-                } else {
-                    itemCount++;
-                }
-            }
+            ItemStack backpackItem = backpack.createIconStack();
 
-            int totalSlots = backpack.getInventory().size();
+            int itemCount = backpack.usedSlots();
+            int emptySlots = backpack.getEmptySlots();
+            int totalSlots = backpack.slots();
 
-            String backpackName = MessageUtils.parseColors("<#ff4444>[ADMIN]</> <#ffff44>" + backpack.getName() + "</> <#888888>(ID: " + entry.getKey() + ")</>");
+            String backpackName = MessageUtils.parseColors("<#ff4444>[ADMIN]</> <#ffff44>" + backpack.name() + "</> <#888888>(ID: " + entry.getKey() + ")</>");
             backpackItem.set(DataComponentTypes.CUSTOM_NAME, MessageUtils.parseText(backpackName));
 
             // ACTUALIZADO: Usar sistema de idiomas para lore de admin
@@ -156,35 +138,27 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
         }
     }
 
-    private int getTotalItems(Map<Integer, MongoBackpackManager.BackpackData> backpacks) {
+    private int getTotalItems(Map<Integer, BackpackSummary> backpacks) {
         int total = 0;
-        for (MongoBackpackManager.BackpackData backpack : backpacks.values()) {
-            for (ItemStack stack : backpack.getInventory()) {
-                if (!stack.isEmpty()) {
-                    total++;
-                }
-            }
+        for (BackpackSummary backpack : backpacks.values()) {
+            total += backpack.usedSlots();
         }
         return total;
     }
 
-    private int getTotalEmptySlots(Map<Integer, MongoBackpackManager.BackpackData> backpacks) {
+    private int getTotalEmptySlots(Map<Integer, BackpackSummary> backpacks) {
         int total = 0;
-        for (MongoBackpackManager.BackpackData backpack : backpacks.values()) {
-            for (ItemStack stack : backpack.getInventory()) {
-                if (stack.isEmpty()) {
-                    total++;
-                }
-            }
+        for (BackpackSummary backpack : backpacks.values()) {
+            total += backpack.getEmptySlots();
         }
         return total;
     }
 
-    private double getTotalUsagePercentage(Map<Integer, MongoBackpackManager.BackpackData> backpacks) {
+    private double getTotalUsagePercentage(Map<Integer, BackpackSummary> backpacks) {
         int totalItems = getTotalItems(backpacks);
         int totalSlots = 0;
-        for (MongoBackpackManager.BackpackData backpack : backpacks.values()) {
-            totalSlots += backpack.getInventory().size();
+        for (BackpackSummary backpack : backpacks.values()) {
+            totalSlots += backpack.slots();
         }
         return totalSlots > 0 ? (double) totalItems / totalSlots * 100 : 0;
     }
@@ -225,18 +199,9 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
                         ((ServerPlayerEntity) player).closeHandledScreen();
 
                         // Delay para evitar conflictos
-                        CompletableFuture.runAsync(() -> {
-                            try {
-                                Thread.sleep(100);
-                                if (BackpacksMod.getServer() != null) {
-                                    BackpacksMod.getServer().execute(() -> {
-                                        BackpackAdminEditScreenHandler.openAdminEdit((ServerPlayerEntity) player, targetPlayer, backpackId);
-                                    });
-                                }
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            }
-                        });
+                        BackpackScheduler.runLaterOnServer(() -> {
+                            BackpackAdminEditScreenHandler.openAdminEdit((ServerPlayerEntity) player, targetPlayer, backpackId);
+                        }, 100);
                         return;
 
                     } else if (button == 1) { // Right click
@@ -255,18 +220,9 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
 
                         ((ServerPlayerEntity) player).closeHandledScreen();
 
-                        CompletableFuture.runAsync(() -> {
-                            try {
-                                Thread.sleep(100);
-                                if (BackpacksMod.getServer() != null) {
-                                    BackpacksMod.getServer().execute(() -> {
-                                        openAdminRenameInterface((ServerPlayerEntity) player, backpackId);
-                                    });
-                                }
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            }
-                        });
+                        BackpackScheduler.runLaterOnServer(() -> {
+                            openAdminRenameInterface((ServerPlayerEntity) player, backpackId);
+                        }, 100);
                         return;
                     }
                 }
@@ -290,7 +246,7 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
                 String playerName = targetPlayer.getName().getString();
 
                 if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() -> {
+                    MainThreadTaskQueue.post(() -> {
                         admin.sendMessage(Text.literal(""), false);
                         admin.sendMessage(LanguageManager.getMessageAsText("statsHeader", playerName), false);
                         admin.sendMessage(LanguageManager.getMessageAsText("playerNameDisplay", playerName), false);
@@ -306,7 +262,7 @@ public class BackpackAdminViewScreenHandler extends GenericContainerScreenHandle
             } catch (Exception e) {
                 LanguageManager.sendMessage(admin, "errorLoadingData");
             }
-        });
+        }, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
     }
 
     private void openAdminRenameInterface(ServerPlayerEntity admin, int backpackId) {
@@ -153,7 +153,29 @@ public class BackpackCommands {
                             }
                             return false;
                         })
-                        .executes(BackpackCommands::forceSaveAll)));
+                        .executes(BackpackCommands::forceSaveAll))
+                // NUEVO: Pasar los documentos guardados al formato configurado (mongoDocumentLayout)
+                .then(CommandManager.literal("migrate-layout")
+                        .requires(source -> {
+                            if (source.getEntity() == null) return true; // Consola
+                            if (source.getEntity() instanceof ServerPlayerEntity player) {
+                                return LuckPermsManager.canModifyConfig(player);
+                            }
+                            return false;
+                        })
+                        .executes(BackpackCommands::migrateLayout))
+                // NUEVO: Estado de la compresión de items y entrenamiento del diccionario
+                .then(CommandManager.literal("compression")
+                        .requires(source -> {
+                            if (source.getEntity() == null) return true; // Consola
+                            if (source.getEntity() instanceof ServerPlayerEntity player) {
+                                return LuckPermsManager.canModifyConfig(player);
+                            }
+                            return false;
+                        })
+                        .executes(BackpackCommands::showCompressionStats)
+                        .then(CommandManager.literal("train")
+                                .executes(BackpackCommands::trainCompression))));
 
         // Comando para jugadores - Renombrar sus propias mochilas
         dispatcher.register(CommandManager.literal("rename-backpack")
@@ -537,6 +559,64 @@ public class BackpackCommands {
         }
     }
 
+    private static int migrateLayout(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        boolean console = isConsole(source);
+        String layout = ConfigManager.getConfig().mongoDocumentLayout;
+
+        source.sendFeedback(() -> Text.literal(console ?
+                "[CONSOLE] Migrating backpack documents to the '" + layout + "' layout..." :
+                "§eMigrando documentos de mochilas al formato '" + layout + "'..."), false);
+
+        BackpacksMod.getMongoManager().migrateStorageLayout().whenComplete((result, throwable) ->
+                MainThreadTaskQueue.post(() -> {
+                    if (throwable != null) {
+                        Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+                        sendErrorFeedback(source, "Layout migration failed: " + cause.getMessage());
+                        return;
+                    }
+                    String message = String.format("%d migrated, %d conflicts, %d failed",
+                            result.migrated(), result.conflicts(), result.failed());
+                    source.sendFeedback(() -> Text.literal(console ?
+                            "[CONSOLE] Layout migration done: " + message :
+                            "§aMigración completada: " + message), true);
+                }));
+        return 1;
+    }
+
+    private static int showCompressionStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String stats = ItemPayloadCompression.getStats();
+        source.sendFeedback(() -> Text.literal(isConsole(source) ?
+                "[CONSOLE] Item compression: " + stats :
+                "§6Compresión de items: §f" + stats), false);
+        return 1;
+    }
+
+    private static int trainCompression(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        boolean console = isConsole(source);
+
+        source.sendFeedback(() -> Text.literal(console ?
+                "[CONSOLE] Training compression dictionary from cached backpacks..." :
+                "§eEntrenando diccionario de compresión con las mochilas en cache..."), false);
+
+        BackpacksMod.getMongoManager().trainCompressionDictionary().whenComplete((result, throwable) ->
+                MainThreadTaskQueue.post(() -> {
+                    if (throwable != null) {
+                        Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+                        sendErrorFeedback(source, "Dictionary training failed: " + cause.getMessage());
+                        return;
+                    }
+                    String message = String.format("dictionary %d (%d bytes, %d items), ratio %.2f (%.2f without dictionary)",
+                            result.dictionaryId(), result.dictionarySize(), result.samples(), result.ratio(), result.plainRatio());
+                    source.sendFeedback(() -> Text.literal(console ?
+                            "[CONSOLE] Training done: " + message :
+                            "§aEntrenamiento completado: " + message), true);
+                }));
+        return 1;
+    }
+
     // NUEVO: Comando para listar todos los jugadores con mochilas
     private static int listAllPlayers(CommandContext<ServerCommandSource> context) {
         try {
@@ -618,6 +698,7 @@ public class BackpackCommands {
                 if (BackpacksMod.getMongoManager() != null) {
                     stats.append("MongoDB: Connected\n");
                     stats.append("Pending writes: ").append(BackpacksMod.getMongoManager().hasPendingWrites() ? "Yes" : "No").append("\n");
+                    stats.append("Cache: ").append(BackpacksMod.getMongoManager().getCacheStats()).append("\n");
                 }
             } else {
                 stats.append("§6=== BackpacksMod Server Statistics (NO BACKUPS) ===\n");
@@ -639,6 +720,7 @@ public class BackpackCommands {
                 if (BackpacksMod.getMongoManager() != null) {
                     stats.append("§eMongoDB: §aConnected\n");
                     stats.append("§ePending writes: ").append(BackpacksMod.getMongoManager().hasPendingWrites() ? "§cYes" : "§aNo").append("\n");
+                    stats.append("§eCache: §a").append(BackpacksMod.getMongoManager().getCacheStats()).append("\n");
                 }
             }
 
@@ -19,10 +19,36 @@ public class BackpackConfig {
     public String mainCommand = "backpack";
     public String playerCommand = "backpacks";
 
+    // === ALMACENAMIENTO (USUARIO) ===
+    // "mongodb" (varios servidores) o "local" (fichero en config/backpacks, un solo servidor)
+    public String storageBackend = "mongodb";
+    public String localStorageFile = "storage/backpacks.db";
+
     // === CONFIGURACIÓN MONGODB (USUARIO) ===
     public String mongoConnectionString = "mongodb://localhost:27017";
     public String databaseName = "minecraft_backpacks";
+    // "player" = un documento por jugador; "backpack" = cabecera por jugador + un documento por mochila
+    public String mongoDocumentLayout = "player";
     public int mongoConnectionTimeoutMs = 10000;
+    public int writeBehindBatchSize = 100;
+    public int writeBehindIntervalSeconds = 5;
+    public boolean staleWhileRevalidate = true;
+    public int offlineCacheMaxItemStacks = 200000;
+    public boolean crossServerSync = true;
+    public int crossServerPollSeconds = 3;
+    public boolean useVirtualThreads = false;
+    // Diario local (config/backpacks/wal) de cambios aún no confirmados por el almacenamiento
+    public boolean writeAheadLog = true;
+    public int walSegmentSizeMb = 16;
+    // Comprimir el NBT de los items (deflate 1-9 con diccionario entrenado: /<comando> compression train)
+    public boolean compressItemPayloads = false;
+    public int compressionLevel = 6;
+    // Al cerrar una mochila sin cambios, soltar sus items decodificados (se vuelven a decodificar al abrirla)
+    public boolean releaseInventoriesOnClose = true;
+
+    // === HILO PRINCIPAL (USUARIO) ===
+    // Milisegundos por tick para tareas del mod en el hilo del servidor (entregas VIP/por defecto, menús)
+    public int mainThreadBudgetMs = 5;
 
     // === CONFIGURACIÓN DE PERMISOS (USUARIO) ===
     public int adminPermissionLevel = 2;
@@ -144,6 +170,30 @@ public class BackpackConfig {
             mongoConnectionTimeoutMs = 10000;
         }
 
+        if (writeBehindBatchSize < 1 || writeBehindBatchSize > 1000) {
+            writeBehindBatchSize = 100;
+        }
+
+        if (writeBehindIntervalSeconds < 1 || writeBehindIntervalSeconds > 300) {
+            writeBehindIntervalSeconds = 5;
+        }
+
+        if (offlineCacheMaxItemStacks < 1000 || offlineCacheMaxItemStacks > 5000000) {
+            offlineCacheMaxItemStacks = 200000;
+        }
+
+        if (crossServerPollSeconds < 1 || crossServerPollSeconds > 60) {
+            crossServerPollSeconds = 3;
+        }
+
+        if (walSegmentSizeMb < 1 || walSegmentSizeMb > 256) {
+            walSegmentSizeMb = 16;
+        }
+
+        if (mainThreadBudgetMs < 1 || mainThreadBudgetMs > 50) {
+            mainThreadBudgetMs = 5;
+        }
+
         if (adminPermissionLevel < 1 || adminPermissionLevel > 4) {
             adminPermissionLevel = 2;
         }
@@ -152,6 +202,22 @@ public class BackpackConfig {
             serverId = "default-server";
         }
 
+        if (!"mongodb".equals(storageBackend) && !"local".equals(storageBackend)) {
+            storageBackend = "mongodb";
+        }
+
+        if (compressionLevel < 1 || compressionLevel > 9) {
+            compressionLevel = 6;
+        }
+
+        if (!"player".equals(mongoDocumentLayout) && !"backpack".equals(mongoDocumentLayout)) {
+            mongoDocumentLayout = "player";
+        }
+
+        if (localStorageFile == null || localStorageFile.trim().isEmpty()) {
+            localStorageFile = "storage/backpacks.db";
+        }
+
         if (mongoConnectionString == null || mongoConnectionString.trim().isEmpty()) {
             mongoConnectionString = "mongodb://localhost:27017";
         }
@@ -289,8 +355,18 @@ public class BackpackConfig {
         summary.append("  §7Stats enabled: §a").append(showBackpackStats).append("\n");
         summary.append("  §7Main command: §a/").append(mainCommand).append("\n");
         summary.append("  §7Player command: §a/").append(playerCommand).append("\n");
+        summary.append("  §7Storage: §a").append(storageBackend).append("\n");
         summary.append("  §7MongoDB: §a").append(mongoConnectionString).append("\n");
         summary.append("  §7Database: §a").append(databaseName).append("\n");
+        summary.append("  §7Document layout: §a").append(mongoDocumentLayout).append("\n");
+        summary.append("  §7Write-behind: §a").append(writeBehindBatchSize).append(" per batch, every ")
+                .append(writeBehindIntervalSeconds).append("s\n");
+        summary.append("  §7Cross-server sync: §a").append(crossServerSync).append("\n");
+        summary.append("  §7Virtual threads: §a").append(useVirtualThreads).append("\n");
+        summary.append("  §7Write-ahead log: §a").append(writeAheadLog ? walSegmentSizeMb + "MB segments" : "disabled").append("\n");
+        summary.append("  §7Item compression: §a").append(compressItemPayloads ? "level " + compressionLevel : "disabled").append("\n");
+        summary.append("  §7Release closed inventories: §a").append(releaseInventoriesOnClose).append("\n");
+        summary.append("  §7Main thread budget: §a").append(mainThreadBudgetMs).append("ms/tick\n");
 
         // ELIMINADO: Información de backup
         summary.append("  §7Backup system: §cDISABLED for performance\n");
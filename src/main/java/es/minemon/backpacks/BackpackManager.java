@@ -1,13 +1,17 @@
 package es.minemon.backpacks;
 
 import net.minecraft.item.ItemStack;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.collection.DefaultedList;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Wrapper optimizado para el MongoBackpackManager
@@ -22,6 +26,59 @@ public class BackpackManager {
         return BackpacksMod.getMongoManager().getPlayerBackpacks(playerId);
     }
 
+    /**
+     * Obtiene los backpacks sin bloquear: inmediato si están en cache, si no tras cargarlos de MongoDB
+     */
+    public static CompletableFuture<MongoBackpackManager.PlayerBackpacks> getPlayerBackpacksAsync(UUID playerId) {
+        return BackpacksMod.getMongoManager().getPlayerBackpacksAsync(playerId);
+    }
+
+    /**
+     * Ejecuta el callback en el hilo del servidor cuando los backpacks estén disponibles
+     */
+    public static CompletableFuture<Void> withPlayerBackpacks(UUID playerId, Consumer<MongoBackpackManager.PlayerBackpacks> callback) {
+        return getPlayerBackpacksAsync(playerId).thenAccept(backpacks -> {
+            MinecraftServer server = BackpacksMod.getServer();
+            if (server != null) {
+                MainThreadTaskQueue.post(() -> callback.accept(backpacks));
+            }
+        });
+    }
+
+    /**
+     * Se completa cuando los datos del jugador están cargados (la carga empieza en el login)
+     */
+    public static CompletableFuture<MongoBackpackManager.PlayerBackpacks> whenPlayerReady(UUID playerId) {
+        return BackpacksMod.getMongoManager().whenPlayerReady(playerId);
+    }
+
+    /**
+     * True si los datos del jugador no se pudieron cargar (almacenamiento caído): no se pueden abrir ni modificar
+     */
+    public static boolean isStorageLocked(UUID playerId) {
+        MongoBackpackManager manager = BackpacksMod.getMongoManager();
+        return manager != null && manager.isLocked(playerId);
+    }
+
+    /**
+     * Ejecuta la acción en el hilo del servidor en cuanto los datos del jugador estén listos
+     * (inmediatamente si ya lo están)
+     */
+    public static void runWhenReady(UUID playerId, Runnable action) {
+        MongoBackpackManager manager = BackpacksMod.getMongoManager();
+        if (manager.isPlayerReady(playerId)) {
+            action.run();
+            return;
+        }
+
+        manager.whenPlayerReady(playerId).whenComplete((backpacks, throwable) -> {
+            MinecraftServer server = BackpacksMod.getServer();
+            if (server != null) {
+                MainThreadTaskQueue.post(action);
+            }
+        });
+    }
+
     /**
      * Añade una mochila
      */
@@ -108,26 +165,29 @@ public class BackpackManager {
     /**
      * Manejo de conexión de jugador - OPTIMIZADO sin backups
      */
-    public static void onPlayerJoin(ServerPlayerEntity player) {
+    public static CompletableFuture<MongoBackpackManager.PlayerBackpacks> onPlayerJoin(ServerPlayerEntity player) {
         UUID playerId = player.getUuid();
 
-        // Invalidar cache para datos frescos
-        BackpacksMod.getMongoManager().invalidatePlayerCache(playerId);
+        // Fijar el cache durante toda la sesión; la carga normalmente ya empezó en el login
+        BackpacksMod.getMongoManager().pinPlayer(playerId);
+        CompletableFuture<MongoBackpackManager.PlayerBackpacks> ready = BackpacksMod.getMongoManager().prefetchPlayer(playerId);
 
-        // Cargar datos de forma asíncrona
-        loadPlayerDataAsync(playerId)
-                .thenRun(() -> {
-                    MongoBackpackManager.PlayerBackpacks backpacks = getPlayerBackpacks(playerId);
-                    int backpackCount = backpacks.getAllBackpacks().size();
+        // CORREGIDO: La carga termina en un hilo de IO_LOAD; los mensajes al jugador van al hilo del servidor
+        ready.whenComplete((backpacks, throwable) -> MainThreadTaskQueue.post(() -> {
+            if (player.isDisconnected()) {
+                return;
+            }
+            if (throwable != null) {
+                LanguageManager.sendMessage(player, "errorLoadingRetry");
+                return;
+            }
+            int backpackCount = backpacks.getAllBackpacks().size();
 
-                    if (backpackCount > 0) {
-                        LanguageManager.sendMessage(player, "dataLoadedWithCount", backpackCount);
-                    }
-                })
-                .exceptionally(throwable -> {
-                    LanguageManager.sendMessage(player, "errorLoadingRetry");
-                    return null;
-                });
+            if (backpackCount > 0) {
+                LanguageManager.sendMessage(player, "dataLoadedWithCount", backpackCount);
+            }
+        }));
+        return ready;
     }
 
     /**
@@ -143,6 +203,9 @@ public class BackpackManager {
             // Esperar máximo 5 segundos (más tiempo sin backup)
             saveTask.orTimeout(5, TimeUnit.SECONDS)
                     .whenComplete((result, throwable) -> {
+                        // Fuera de sesión la entrada vuelve a caducar por tiempo
+                        BackpacksMod.getMongoManager().unpinPlayer(playerId);
+                        BackpacksMod.getMongoManager().releasePlayerSession(playerId);
                         if (throwable != null) {
                             BackpacksMod.LOGGER.warn("Failed to save data for player " + player.getName().getString() + " on disconnect");
                             // ELIMINADO: Emergency backup - solo log warning
@@ -157,11 +220,10 @@ public class BackpackManager {
     }
 
     /**
-     * Obtiene estadísticas de jugador
+     * Obtiene estadísticas de jugador (del índice summary: no decodifica items si no está en cache)
      */
     public static BackpackStats getPlayerStats(UUID playerId) {
-        MongoBackpackManager.PlayerBackpacks backpacks = getPlayerBackpacks(playerId);
-        return new BackpackStats(backpacks);
+        return new BackpackStats(BackpacksMod.getMongoManager().getBackpackSummaries(playerId).values());
     }
 
     /**
@@ -175,7 +237,7 @@ public class BackpackManager {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
-        });
+        }, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
     }
 
     /**
@@ -192,11 +254,8 @@ public class BackpackManager {
                     return false;
                 }
 
-                if (backpack.getInventory() == null) {
-                    return false;
-                }
-
-                if (backpack.getInventory().size() < 9 || backpack.getInventory().size() > 54) {
+                // getSlots: no hace falta decodificar los items para comprobar el tamaño
+                if (backpack.getSlots() < 9 || backpack.getSlots() > 54) {
                     return false;
                 }
             }
@@ -251,12 +310,19 @@ public class BackpackManager {
             MongoBackpackManager.BackpackData backpack = getBackpack(playerId, backpackId);
             if (backpack != null) {
                 DefaultedList<ItemStack> backpackInventory = backpack.getInventory();
+                BitSet changedSlots = new BitSet();
 
                 for (int i = 0; i < Math.min(newInventory.size(), backpackInventory.size()); i++) {
-                    backpackInventory.set(i, newInventory.get(i).copy());
+                    if (!ItemStack.areEqual(backpackInventory.get(i), newInventory.get(i))) {
+                        backpackInventory.set(i, newInventory.get(i).copy());
+                        changedSlots.set(i);
+                    }
                 }
 
-                markBackpackDirty(playerId);
+                if (!changedSlots.isEmpty()) {
+                    markBackpackDirty(playerId);
+                    BackpackSyncManager.notifyInventoryChange(playerId, backpackId, null, changedSlots);
+                }
             }
         } catch (Exception e) {
             // Error handling sin logging
@@ -275,7 +341,7 @@ public class BackpackManager {
             } catch (Exception e) {
                 throw new RuntimeException("Failed to clear caches", e);
             }
-        });
+        }, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
     }
 
     public static class BackpackStats {
@@ -284,20 +350,18 @@ public class BackpackManager {
         private final int emptySlots;
 
         public BackpackStats(MongoBackpackManager.PlayerBackpacks backpacks) {
-            this.totalBackpacks = backpacks.getAllBackpacks().size();
+            this(backpacks.getSummaries().values());
+        }
+
+        public BackpackStats(Collection<BackpackSummary> summaries) {
+            this.totalBackpacks = summaries.size();
 
             int items = 0;
             int empty = 0;
 
-            for (MongoBackpackManager.BackpackData backpack : backpacks.getAllBackpacks().values()) {
-                DefaultedList<ItemStack> inventory = backpack.getInventory();
-                for (ItemStack stack : inventory) {
-                    if (stack.isEmpty()) {
-                        empty++;
-                    } else {
-                        items++;
-                    }
-                }
+            for (BackpackSummary summary : summaries) {
+                items += summary.usedSlots();
+                empty += summary.getEmptySlots();
             }
 
             this.totalItems = items;
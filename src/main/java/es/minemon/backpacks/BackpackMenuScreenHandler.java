@@ -17,7 +17,6 @@ import net.minecraft.text.Text;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletableFuture;
 
 public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
     private final ServerPlayerEntity player;
@@ -88,18 +87,10 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
                 backpackItem = new ItemStack(Items.CHEST);
             }
 
-            // Calcular estadísticas de forma eficiente
-            int itemCount = 0;
-            int emptySlots = 0;
-            for (ItemStack stack : backpack.getInventory()) {
-                if (stack.isEmpty()) {
-                    emptySlots++;
-                } else {
-                    itemCount++;
-                }
-            }
-
-            int totalSlots = backpack.getInventory().size();
+            // Calcular estadísticas sin decodificar los items de mochilas que no se abren
+            int itemCount = backpack.getUsedSlots();
+            int totalSlots = backpack.getSlots();
+            int emptySlots = totalSlots - itemCount;
 
             // ACTUALIZADO: Detectar si es mochila VIP para colorearla diferente
             String backpackName = backpack.getName();
@@ -289,11 +280,7 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
         Map<Integer, MongoBackpackManager.BackpackData> visibleBackpacks = VipBackpackManager.getVisibleBackpacks(player);
         int total = 0;
         for (MongoBackpackManager.BackpackData backpack : visibleBackpacks.values()) {
-            for (ItemStack stack : backpack.getInventory()) {
-                if (!stack.isEmpty()) {
-                    total++;
-                }
-            }
+            total += backpack.getUsedSlots();
         }
         return total;
     }
@@ -371,18 +358,9 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
                             return;
                         } else {
                             ((ServerPlayerEntity) player).closeHandledScreen();
-                            CompletableFuture.runAsync(() -> {
-                                try {
-                                    Thread.sleep(100);
-                                    if (BackpacksMod.getServer() != null) {
-                                        BackpacksMod.getServer().execute(() -> {
-                                            BackpackScreenHandler.openBackpack((ServerPlayerEntity) player, backpackId);
-                                        });
-                                    }
-                                } catch (InterruptedException e) {
-                                    Thread.currentThread().interrupt();
-                                }
-                            });
+                            BackpackScheduler.runLaterOnServer(() -> {
+                                BackpackScreenHandler.openBackpack((ServerPlayerEntity) player, backpackId);
+                            }, 100);
                             return;
                         }
                     } else if (button == 1) { // Click derecho
@@ -413,18 +391,9 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
         ((ServerPlayerEntity) player).closeHandledScreen();
 
         // Pequeño delay para evitar conflictos
-        CompletableFuture.runAsync(() -> {
-            try {
-                Thread.sleep(50);
-                if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() -> {
-                        openBackpackMenuPage((ServerPlayerEntity) player, page);
-                    });
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        });
+        BackpackScheduler.runLaterOnServer(() -> {
+            openBackpackMenuPage((ServerPlayerEntity) player, page);
+        }, 50);
     }
 
     // CORREGIDO: Manejo mejorado de cambio de icono con retorno de item
@@ -476,19 +445,10 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
                 LanguageManager.sendMessage(player, "originalItemReturned");
 
                 // Actualizar interfaz
-                CompletableFuture.runAsync(() -> {
-                    try {
-                        Thread.sleep(100);
-                        if (BackpacksMod.getServer() != null) {
-                            BackpacksMod.getServer().execute(() -> {
-                                populateBackpackMenu();
-                                this.sendContentUpdates();
-                            });
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                });
+                BackpackScheduler.runLaterOnServer(() -> {
+                    populateBackpackMenu();
+                    this.sendContentUpdates();
+                }, 100);
 
                 // Guardar de forma asíncrona
                 BackpackManager.forcePlayerSave(player.getUuid());
@@ -580,10 +540,17 @@ public class BackpackMenuScreenHandler extends GenericContainerScreenHandler {
     public static void openBackpackMenu(ServerPlayerEntity player) {
         // CORREGIDO: NO actualizar mochilas VIP aquí para evitar bucle infinito
         // La actualización se hace solo en el constructor del handler
-        openBackpackMenuPage(player, 0);
+        // Recién conectado: abrir en cuanto terminen de cargar sus datos, sin bloquear el hilo del servidor
+        BackpackManager.runWhenReady(player.getUuid(), () -> openBackpackMenuPage(player, 0));
     }
 
     public static void openBackpackMenuPage(ServerPlayerEntity player, int page) {
+        // NUEVO: Sin datos cargados el menú estaría vacío; avisar en lugar de mostrarlo
+        if (BackpackManager.isStorageLocked(player.getUuid())) {
+            LanguageManager.sendMessage(player, "storageUnavailable");
+            return;
+        }
+
         try {
             // CORREGIDO: NO actualizar mochilas VIP aquí para evitar bucle infinito
             player.openHandledScreen(new BackpackMenuScreenHandlerFactory(player, page));
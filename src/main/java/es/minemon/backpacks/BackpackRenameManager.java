@@ -6,8 +6,8 @@ import net.minecraft.text.Text;
 
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -17,12 +17,8 @@ import java.util.concurrent.TimeUnit;
 public class BackpackRenameManager {
     private static final ConcurrentHashMap<UUID, RenameData> pendingRenames = new ConcurrentHashMap<>();
 
-    // Scheduler optimizado para limpieza
-    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-        Thread t = new Thread(r, "Rename-Cleanup");
-        t.setDaemon(true);
-        return t;
-    });
+    // Limpieza periódica en el carril housekeeping del BackpackScheduler
+    private static ScheduledFuture<?> cleanupTask;
 
     private static class RenameData {
         final int backpackId;
@@ -80,7 +76,7 @@ public class BackpackRenameManager {
         });
 
         // Iniciar limpieza automática cada 30 segundos
-        scheduler.scheduleAtFixedRate(() -> {
+        cleanupTask = BackpackScheduler.scheduleAtFixedRate(BackpackScheduler.Lane.HOUSEKEEPING, () -> {
             pendingRenames.entrySet().removeIf(entry -> {
                 if (entry.getValue().isExpired()) {
                     UUID playerId = entry.getKey();
@@ -103,51 +99,55 @@ public class BackpackRenameManager {
     // Procesamiento asíncrono optimizado - ACTUALIZADO
     private static void processRename(ServerPlayerEntity sender, int backpackId, String newName) {
         // Ejecutar en hilo separado para no bloquear
-        scheduler.execute(() -> {
-            try {
-                boolean success = BackpackManager.renameBackpack(sender.getUuid(), backpackId, newName);
-
-                // Volver al hilo principal para interactuar con el jugador
-                if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() -> {
-                        if (success) {
-                            // ACTUALIZADO: Usar sistema de idiomas
-                            LanguageManager.sendMessage(sender, "renameSuccessful", newName);
-
-                            // Guardado y apertura de menú asíncrono
-                            BackpackManager.forcePlayerSave(sender.getUuid())
-                                    .thenRun(() -> BackpacksMod.getServer().execute(() -> {
-                                        try {
-                                            BackpackMenuScreenHandler.openBackpackMenu(sender);
-                                            // ACTUALIZADO: Usar sistema de idiomas
-                                            LanguageManager.sendMessage(sender, "menuUpdated");
-                                        } catch (Exception e) {
-                                            // ACTUALIZADO: Usar sistema de idiomas
-                                            LanguageManager.sendMessage(sender, "useBackpacksCommand");
-                                        }
-                                    }))
-                                    .exceptionally(throwable -> {
-                                        BackpacksMod.getServer().execute(() ->
+        try {
+            BackpackScheduler.execute(BackpackScheduler.Lane.HOUSEKEEPING, () -> {
+                try {
+                    boolean success = BackpackManager.renameBackpack(sender.getUuid(), backpackId, newName);
+
+                    // Volver al hilo principal para interactuar con el jugador
+                    if (BackpacksMod.getServer() != null) {
+                        MainThreadTaskQueue.post(() -> {
+                            if (success) {
+                                // ACTUALIZADO: Usar sistema de idiomas
+                                LanguageManager.sendMessage(sender, "renameSuccessful", newName);
+
+                                // Guardado y apertura de menú asíncrono
+                                BackpackManager.forcePlayerSave(sender.getUuid())
+                                        .thenRun(() -> MainThreadTaskQueue.post(() -> {
+                                            try {
+                                                BackpackMenuScreenHandler.openBackpackMenu(sender);
                                                 // ACTUALIZADO: Usar sistema de idiomas
-                                                LanguageManager.sendMessage(sender, "useBackpacksCommand"));
-                                        return null;
-                                    });
-                        } else {
-                            // ACTUALIZADO: Usar sistema de idiomas
-                            LanguageManager.sendMessage(sender, "errorRenamingBackpack");
-                            LanguageManager.sendMessage(sender, "tryAgainLater");
-                        }
-                    });
-                }
-            } catch (Exception e) {
-                BackpacksMod.LOGGER.error("Error en renombrado asíncrono", e);
-                if (BackpacksMod.getServer() != null) {
-                    BackpacksMod.getServer().execute(() ->
-                            // ACTUALIZADO: Usar sistema de idiomas
-                            LanguageManager.sendMessage(sender, "errorRenamingBackpack"));
+                                                LanguageManager.sendMessage(sender, "menuUpdated");
+                                            } catch (Exception e) {
+                                                // ACTUALIZADO: Usar sistema de idiomas
+                                                LanguageManager.sendMessage(sender, "useBackpacksCommand");
+                                            }
+                                        }))
+                                        .exceptionally(throwable -> {
+                                            MainThreadTaskQueue.post(() ->
+                                                    // ACTUALIZADO: Usar sistema de idiomas
+                                                    LanguageManager.sendMessage(sender, "useBackpacksCommand"));
+                                            return null;
+                                        });
+                            } else {
+                                // ACTUALIZADO: Usar sistema de idiomas
+                                LanguageManager.sendMessage(sender, "errorRenamingBackpack");
+                                LanguageManager.sendMessage(sender, "tryAgainLater");
+                            }
+                        });
+                    }
+                } catch (Exception e) {
+                    BackpacksMod.LOGGER.error("Error en renombrado asíncrono", e);
+                    if (BackpacksMod.getServer() != null) {
+                        MainThreadTaskQueue.post(() ->
+                                // ACTUALIZADO: Usar sistema de idiomas
+                                LanguageManager.sendMessage(sender, "errorRenamingBackpack"));
+                    }
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            LanguageManager.sendMessage(sender, "tryAgainLater");
+        }
     }
 
     public static void startRename(UUID playerId, int backpackId) {
@@ -174,14 +174,9 @@ public class BackpackRenameManager {
 
     // Método para cerrar recursos al apagar el servidor
     public static void shutdown() {
-        scheduler.shutdown();
-        try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            scheduler.shutdownNow();
-            Thread.currentThread().interrupt();
+        if (cleanupTask != null) {
+            cleanupTask.cancel(false);
+            cleanupTask = null;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,298 @@
+// NUEVO: BackpackScheduler.java - Hilos del mod centralizados en carriles con nombre
+package es.minemon.backpacks;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Todos los hilos del mod: carriles con número fijo de hilos y cola acotada, más un único hilo temporizador
+ * que solo despacha tareas diferidas a su carril (nunca se duerme un hilo para esperar).
+ * Nada de este mod debe ejecutarse en ForkJoinPool.commonPool.
+ */
+public class BackpackScheduler {
+
+    public enum Lane {
+        // Lecturas de almacenamiento: hilos propios para no esperar detrás de los guardados
+        IO_LOAD("io-load", 6, 200),
+        // Guardados individuales y flushes del write-behind
+        IO_SAVE("io-save", 4, 200),
+        // Sincronización de inventarios abiertos
+        SYNC("sync", 2, 100),
+        // Limpiezas, tareas de eventos y operaciones de ciclo de vida
+        HOUSEKEEPING("housekeeping", 2, 100),
+        // Cursor del change stream entre servidores: una tarea de larga duración bloqueada en MongoDB
+        CHANGE_WATCH("change-watch", 1, 1);
+
+        private final String id;
+        private final int threads;
+        private final int queueSize;
+
+        Lane(String id, int threads, int queueSize) {
+            this.id = id;
+            this.threads = threads;
+            this.queueSize = queueSize;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private static final Map<Lane, LaneExecutor> lanes = new EnumMap<>(Lane.class);
+    private static ScheduledExecutorService timer;
+    private static volatile boolean initialized = false;
+    private static volatile boolean stopped = false;
+
+    private static class LaneExecutor implements Executor {
+        private final Lane lane;
+        private final ExecutorService delegate;
+        private final boolean virtual;
+        private final AtomicInteger queued = new AtomicInteger(0);
+        private final AtomicInteger active = new AtomicInteger(0);
+        private final AtomicLong completed = new AtomicLong(0);
+        private final AtomicLong rejected = new AtomicLong(0);
+        // Avisa a awaitIdle cuando el carril se queda sin tareas
+        private final Object idleMonitor = new Object();
+
+        private LaneExecutor(Lane lane, boolean virtual) {
+            this.lane = lane;
+            this.virtual = virtual;
+            if (virtual) {
+                // Sin cola ni límite de hilos: la concurrencia real la limita quien hace la I/O
+                this.delegate = Executors.newThreadPerTaskExecutor(
+                        Thread.ofVirtual().name("Backpacks-" + lane.id + "-v", 0).factory());
+            } else {
+                this.delegate = new ThreadPoolExecutor(
+                        lane.threads, lane.threads,
+                        60L, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(lane.queueSize),
+                        r -> {
+                            Thread t = new Thread(r, "Backpacks-" + lane.id + "-" + System.nanoTime());
+                            t.setDaemon(true);
+                            t.setUncaughtExceptionHandler((thread, ex) -> {
+                                BackpacksMod.LOGGER.error("Uncaught exception in thread: " + thread.getName(), ex);
+                            });
+                            return t;
+                        },
+                        new ThreadPoolExecutor.AbortPolicy()
+                );
+                ((ThreadPoolExecutor) delegate).allowCoreThreadTimeOut(true);
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            queued.incrementAndGet();
+            try {
+                delegate.execute(() -> {
+                    queued.decrementAndGet();
+                    active.incrementAndGet();
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        BackpacksMod.LOGGER.error("Error in " + lane.id + " task", e);
+                    } finally {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                        signalIfIdle();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                signalIfIdle();
+                throw e;
+            }
+        }
+
+        private boolean isIdle() {
+            return queued.get() == 0 && active.get() == 0;
+        }
+
+        private void signalIfIdle() {
+            if (isIdle()) {
+                synchronized (idleMonitor) {
+                    idleMonitor.notifyAll();
+                }
+            }
+        }
+
+        private String stats() {
+            return String.format("%s%s %d active/%d queued (%d done, %d rejected)", lane.id, virtual ? "(v)" : "",
+                    active.get(), queued.get(), completed.get(), rejected.get());
+        }
+    }
+
+    public static synchronized void initialize() {
+        if (initialized || stopped) return;
+
+        BackpackConfig config = ConfigManager.getConfig();
+        boolean virtualThreads = config != null && config.useVirtualThreads;
+
+        for (Lane lane : Lane.values()) {
+            // Los carriles de I/O y sync bloquean en MongoDB o en el hilo del servidor: candidatos a hilos virtuales
+            // HOUSEKEEPING y CHANGE_WATCH viven mucho tiempo con pocos hilos: siempre hilos de plataforma
+            lanes.put(lane, new LaneExecutor(lane, virtualThreads && lane != Lane.HOUSEKEEPING && lane != Lane.CHANGE_WATCH));
+        }
+
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Backpacks-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        ((ScheduledThreadPoolExecutor) timer).setRemoveOnCancelPolicy(true);
+
+        initialized = true;
+        BackpacksMod.LOGGER.info("BackpackScheduler initialized (" + (virtualThreads ? "virtual" : "platform") + " threads)");
+    }
+
+    public static Executor executor(Lane lane) {
+        ensureRunning();
+        return lanes.get(lane);
+    }
+
+    /**
+     * Carril independiente del scheduler, configurado igual que los suyos (benchmarks de src/test).
+     * Sus hilos son daemon: no hace falta cerrarlo.
+     */
+    static Executor newLaneExecutor(Lane lane, boolean virtual) {
+        return new LaneExecutor(lane, virtual);
+    }
+
+    private static void ensureRunning() {
+        if (stopped) {
+            throw new RejectedExecutionException("BackpackScheduler is shut down");
+        }
+        if (!initialized) {
+            initialize();
+        }
+    }
+
+    /**
+     * Ejecuta en el carril indicado. Lanza RejectedExecutionException si su cola está llena.
+     */
+    public static void execute(Lane lane, Runnable task) {
+        executor(lane).execute(task);
+    }
+
+    /**
+     * Ejecuta en el carril tras el retardo (el temporizador solo despacha, no ejecuta la tarea)
+     */
+    public static ScheduledFuture<?> schedule(Lane lane, Runnable task, long delay, TimeUnit unit) {
+        Executor executor = executor(lane);
+        return timer.schedule(() -> dispatch(lane, executor, task), delay, unit);
+    }
+
+    /**
+     * Tarea periódica en el carril; si la ejecución anterior no ha terminado se salta el turno
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Lane lane, Runnable task, long initialDelay, long period, TimeUnit unit) {
+        Executor executor = executor(lane);
+        AtomicBoolean running = new AtomicBoolean(false);
+        return timer.scheduleAtFixedRate(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            if (!dispatch(lane, executor, () -> {
+                try {
+                    task.run();
+                } finally {
+                    running.set(false);
+                }
+            })) {
+                running.set(false);
+            }
+        }, initialDelay, period, unit);
+    }
+
+    /**
+     * Ejecuta en el hilo del servidor tras el retardo, sin ocupar ningún hilo mientras tanto
+     * (pasa por MainThreadTaskQueue, así que respeta el presupuesto por tick)
+     */
+    public static ScheduledFuture<?> runLaterOnServer(Runnable task, long delayMs) {
+        ensureRunning();
+        return timer.schedule(() -> {
+            if (BackpacksMod.getServer() != null) {
+                MainThreadTaskQueue.post(task);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean dispatch(Lane lane, Executor executor, Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            BackpacksMod.LOGGER.warn("Lane " + lane.id + " is full, dropping scheduled task");
+            return false;
+        }
+    }
+
+    /**
+     * Espera (en el hilo que llama) a que el carril no tenga tareas en cola ni en curso.
+     * CORREGIDO: Bloquea en el monitor del carril hasta que la última tarea avisa, sin sondear con sleep
+     */
+    public static boolean awaitIdle(Lane lane, long timeoutMs) {
+        LaneExecutor executor = (LaneExecutor) executor(lane);
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (executor.idleMonitor) {
+            while (!executor.isIdle()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    executor.idleMonitor.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public static String getStats() {
+        if (!initialized) {
+            return "not started";
+        }
+        if (stopped) {
+            return "stopped";
+        }
+        StringBuilder stats = new StringBuilder();
+        for (LaneExecutor executor : lanes.values()) {
+            if (!stats.isEmpty()) {
+                stats.append(", ");
+            }
+            stats.append(executor.stats());
+        }
+        return stats.toString();
+    }
+
+    public static synchronized void shutdown() {
+        if (!initialized) return;
+        stopped = true;
+
+        timer.shutdownNow();
+        for (LaneExecutor executor : lanes.values()) {
+            executor.delegate.shutdown();
+        }
+        try {
+            for (LaneExecutor executor : lanes.values()) {
+                if (!executor.delegate.awaitTermination(3, TimeUnit.SECONDS)) {
+                    executor.delegate.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            for (LaneExecutor executor : lanes.values()) {
+                executor.delegate.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+        BackpacksMod.LOGGER.info("BackpackScheduler shut down");
+    }
+}
@@ -14,10 +14,10 @@ import net.minecraft.screen.ScreenHandlerType;
 import net.minecraft.screen.slot.SlotActionType;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.text.Text;
-import net.minecraft.util.collection.DefaultedList;
 
+import java.util.BitSet;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class BackpackScreenHandler extends GenericContainerScreenHandler {
     private final ServerPlayerEntity player;
@@ -30,6 +30,7 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
     private static final long SAVE_DELAY = 300;
 
     private volatile boolean isInternalUpdate = false;
+    private final SlotVersions slotVersions = new SlotVersions(54); // 6 filas como máximo
     private String observerId;
 
     public BackpackScreenHandler(int syncId, PlayerInventory playerInventory, ServerPlayerEntity player, int backpackId) {
@@ -42,6 +43,9 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
         this.backpackId = backpackId;
         this.backpackData = BackpackManager.getBackpack(player.getUuid(), backpackId);
         this.backpackInventory = (SimpleInventory) inventory;
+        if (backpackData != null) {
+            backpackData.openViewer();
+        }
 
         BackpackSyncManager.registerPlayerObserver(player, backpackId);
         this.observerId = "player_" + player.getUuid() + "_" + backpackId;
@@ -53,7 +57,7 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
         return backpackId;
     }
 
-    public void syncInventory(DefaultedList<ItemStack> newInventory) {
+    public void syncInventory(BackpackSyncManager.InventoryDelta delta) {
         if (isInternalUpdate) {
             return;
         }
@@ -63,9 +67,11 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
             int maxSlot = hasBackButton() ? backpackInventory.size() - 1 : backpackInventory.size();
 
             boolean hasActualChanges = false;
-            for (int i = 0; i < Math.min(maxSlot, newInventory.size()); i++) {
+            // Solo los slots que cambiaron y que ningún delta más nuevo ha escrito ya
+            BitSet slots = slotVersions.accept(delta.slots(), delta.version());
+            for (int i = slots.nextSetBit(0); i >= 0 && i < maxSlot; i = slots.nextSetBit(i + 1)) {
                 ItemStack currentStack = backpackInventory.getStack(i);
-                ItemStack newStack = newInventory.get(i);
+                ItemStack newStack = delta.stacks()[i];
 
                 if (!ItemStack.areEqual(currentStack, newStack)) {
                     backpackInventory.setStack(i, newStack.copy());
@@ -164,18 +170,9 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
             if (!clickedStack.isEmpty() && customData.copyNbt().contains("back_button")) {
                 if (actionType == SlotActionType.PICKUP && button == 0) {
                     ((ServerPlayerEntity) player).closeHandledScreen();
-                    CompletableFuture.runAsync(() -> {
-                        try {
-                            Thread.sleep(100);
-                            if (BackpacksMod.getServer() != null) {
-                                BackpacksMod.getServer().execute(() -> {
-                                    BackpackMenuScreenHandler.openBackpackMenu((ServerPlayerEntity) player);
-                                });
-                            }
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                        }
-                    });
+                    BackpackScheduler.runLaterOnServer(() -> {
+                        BackpackMenuScreenHandler.openBackpackMenu((ServerPlayerEntity) player);
+                    }, 100);
                     return;
                 }
                 return;
@@ -208,28 +205,24 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
     private void markChangesAndNotify() {
         if (isInternalUpdate) return;
 
-        saveCurrentInventoryToBackpack();
+        BitSet changedSlots = saveCurrentInventoryToBackpack();
 
         hasChanges = true;
         BackpackManager.markBackpackDirty(player.getUuid());
 
-        BackpackSyncManager.notifyInventoryChange(player.getUuid(), backpackId, player.getUuid());
+        BackpackSyncManager.notifyInventoryChange(player.getUuid(), backpackId, player.getUuid(), changedSlots);
 
         long now = System.currentTimeMillis();
         if (now - lastSave > SAVE_DELAY) {
             lastSave = now;
-            CompletableFuture.runAsync(() -> {
-                try {
-                    Thread.sleep(100);
-                    BackpackManager.forcePlayerSave(player.getUuid());
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            });
+            BackpackScheduler.schedule(BackpackScheduler.Lane.HOUSEKEEPING,
+                    () -> BackpackManager.forcePlayerSave(player.getUuid()), 100, TimeUnit.MILLISECONDS);
         }
     }
 
-    private void saveCurrentInventoryToBackpack() {
+    // Devuelve los slots copiados a la mochila
+    private BitSet saveCurrentInventoryToBackpack() {
+        BitSet changedSlots = new BitSet();
         if (backpackData != null && backpackInventory != null) {
             try {
                 int maxSlot = backpackInventory.size();
@@ -244,6 +237,7 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
 
                     if (!ItemStack.areEqual(currentStack, backpackStack)) {
                         backpackData.getInventory().set(i, currentStack.copy());
+                        changedSlots.set(i);
                         hasActualChanges = true;
                     }
                 }
@@ -256,6 +250,7 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
                 // Error handling sin logging
             }
         }
+        return changedSlots;
     }
 
     @Override
@@ -298,10 +293,29 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
             }
         }
 
+        // NUEVO: Sin cambios, los items vuelven a su forma codificada hasta la próxima apertura
+        // CORREGIDO: Solo al cerrar la última pantalla abierta sobre la mochila (releaseInventory lo comprueba)
+        if (backpackData != null) {
+            backpackData.closeViewer();
+            if (ConfigManager.getConfig().releaseInventoriesOnClose) {
+                backpackData.releaseInventory();
+            }
+        }
+
         super.onClosed(player);
     }
 
     public static void openBackpack(ServerPlayerEntity player, int backpackId) {
+        // Recién conectado: abrir en cuanto terminen de cargar sus datos, sin bloquear el hilo del servidor
+        BackpackManager.runWhenReady(player.getUuid(), () -> openLoadedBackpack(player, backpackId));
+    }
+
+    private static void openLoadedBackpack(ServerPlayerEntity player, int backpackId) {
+        if (BackpackManager.isStorageLocked(player.getUuid())) {
+            LanguageManager.sendMessage(player, "storageUnavailable");
+            return;
+        }
+
         try {
             MongoBackpackManager.BackpackData backpack = BackpackManager.getBackpack(player.getUuid(), backpackId);
             if (backpack == null) {
@@ -339,13 +353,7 @@ public class BackpackScreenHandler extends GenericContainerScreenHandler {
         }
 
         private int getItemCount(MongoBackpackManager.BackpackData backpack) {
-            int count = 0;
-            for (ItemStack stack : backpack.getInventory()) {
-                if (!stack.isEmpty()) {
-                    count++;
-                }
-            }
-            return count;
+            return backpack.getUsedSlots();
         }
 
         @Override
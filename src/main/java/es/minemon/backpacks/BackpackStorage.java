@@ -0,0 +1,106 @@
+// NUEVO: BackpackStorage.java - Interfaz de almacenamiento persistente de mochilas
+package es.minemon.backpacks;
+
+import org.bson.Document;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Almacenamiento de documentos de jugador. El cache, el write-behind y el merge de conflictos
+ * viven en MongoBackpackManager; cada backend solo persiste documentos con control de versión.
+ *
+ * Implementaciones: MongoBackpackStorage (red, multi-servidor) y LocalBackpackStorage (fichero local).
+ */
+public interface BackpackStorage extends AutoCloseable {
+    // Campos de la lectura ligera (menús y estadísticas)
+    List<String> SUMMARY_FIELDS = List.of("summary", "schemaVersion", "version");
+
+    /**
+     * Devuelve el documento del jugador o null si no existe
+     */
+    Document load(UUID playerId) throws Exception;
+
+    /**
+     * Aplica las escrituras (en cualquier orden) y devuelve un resultado por escritura, en el mismo orden.
+     * Una escritura solo se aplica si la versión guardada coincide con la esperada.
+     */
+    List<WriteResult> write(List<StorageWrite> writes);
+
+    void delete(UUID playerId) throws Exception;
+
+    /**
+     * Solo el índice "summary", schemaVersion y version del jugador (sin items); null si no existe.
+     * Por defecto lee el documento completo y descarta el resto.
+     */
+    default Document loadSummary(UUID playerId) throws Exception {
+        Document doc = load(playerId);
+        if (doc == null) {
+            return null;
+        }
+        Document projected = new Document();
+        for (String field : SUMMARY_FIELDS) {
+            if (doc.containsKey(field)) {
+                projected.put(field, doc.get(field));
+            }
+        }
+        return projected;
+    }
+
+    /**
+     * Documento auxiliar compartido (p.ej. diccionarios de compresión), fuera de los documentos de jugador.
+     * null si no existe.
+     */
+    default Document loadMeta(String key) throws Exception {
+        return null;
+    }
+
+    default void saveMeta(String key, Document value) throws Exception {
+    }
+
+    /**
+     * Comprueba que el backend responde (sale del modo degradado). Lanza excepción si no.
+     */
+    default void ping() throws Exception {
+    }
+
+    /**
+     * Recorre todos los documentos guardados (migraciones, estadísticas)
+     */
+    void forEach(Consumer<Document> consumer) throws Exception;
+
+    /**
+     * Avisa de documentos escritos por otros servidores (documento null = borrado).
+     * Los backends de un solo servidor no hacen nada.
+     */
+    default void watchRemoteChanges(String serverId, long pollIntervalMs, BiConsumer<UUID, Document> listener) {
+    }
+
+    default String getRemoteWatchMode() {
+        return "disabled";
+    }
+
+    String getName();
+
+    @Override
+    void close();
+
+    enum WriteResult {
+        OK,
+        // La versión guardada no es la esperada: otro servidor escribió antes
+        CONFLICT,
+        FAILED
+    }
+
+    /**
+     * Una escritura: documento completo (replacement) o update con $set/$unset por rutas con puntos (update).
+     * El backend añade el _id y el campo version = expectedVersion + 1.
+     */
+    record StorageWrite(UUID playerId, long expectedVersion, Document replacement, Document update) {
+        public boolean isReplacement() {
+            return replacement != null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+// NUEVO: BackpackSummary.java - Resumen ligero de una mochila (índice "summary" del documento del jugador)
+package es.minemon.backpacks;
+
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import org.bson.Document;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Lo que necesitan los menús y las estadísticas de una mochila sin decodificar el NBT de sus items.
+ * Se guarda en summary.<id> junto a backpacks.<id> en cada escritura; el icono es solo el id del item.
+ *
+ * hash combina el crc32 del NBT binario de cada slot tal como se guardó (cambia si cambia cualquier slot).
+ */
+public record BackpackSummary(int id, String name, String icon, int slots, int usedSlots, int itemCount, long hash) {
+
+    public int getEmptySlots() {
+        return slots - usedSlots;
+    }
+
+    public double getUsagePercentage() {
+        return slots > 0 ? (double) usedSlots / slots * 100 : 0;
+    }
+
+    /**
+     * Item del icono (sin componentes); cofre si el id no existe en el registro
+     */
+    public ItemStack createIconStack() {
+        Identifier itemId = icon != null ? Identifier.tryParse(icon) : null;
+        ItemStack stack = itemId != null ? new ItemStack(Registries.ITEM.get(itemId)) : ItemStack.EMPTY;
+        return stack.isEmpty() ? new ItemStack(Items.CHEST) : stack;
+    }
+
+    public Document toDocument() {
+        return new Document("name", name)
+                .append("icon", icon)
+                .append("slots", slots)
+                .append("used", usedSlots)
+                .append("items", itemCount)
+                .append("hash", hash);
+    }
+
+    // null si al resumen le faltan campos
+    public static BackpackSummary fromDocument(int id, Document doc) {
+        String name = doc.getString("name");
+        if (name == null || !(doc.get("slots") instanceof Number slots)) {
+            return null;
+        }
+        return new BackpackSummary(id, name, doc.getString("icon"), slots.intValue(),
+                doc.get("used") instanceof Number used ? used.intValue() : 0,
+                doc.get("items") instanceof Number items ? items.intValue() : 0,
+                doc.get("hash") instanceof Number hash ? hash.longValue() : 0);
+    }
+
+    /**
+     * Resúmenes de un documento de jugador (o de su proyección), ordenados por id.
+     * Devuelve null si el documento no tiene un índice fiable (escrito por una versión anterior).
+     */
+    public static Map<Integer, BackpackSummary> fromPlayerDocument(Document doc) {
+        if (doc.getInteger("schemaVersion", 1) < MongoBackpackManager.PlayerBackpacks.SCHEMA_VERSION ||
+                !(doc.get("summary") instanceof Document summaryDoc)) {
+            return null;
+        }
+
+        Map<Integer, BackpackSummary> summaries = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : summaryDoc.entrySet()) {
+            try {
+                int id = Integer.parseInt(entry.getKey());
+                BackpackSummary summary = entry.getValue() instanceof Document backpackDoc ? fromDocument(id, backpackDoc) : null;
+                if (summary == null) {
+                    return null;
+                }
+                summaries.put(id, summary);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return summaries;
+    }
+}
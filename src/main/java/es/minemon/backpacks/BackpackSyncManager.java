@@ -1,6 +1,7 @@
 // CORREGIDO: BackpackSyncManager.java
 package es.minemon.backpacks;
 
+import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.util.collection.DefaultedList;
@@ -12,47 +13,30 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * CORREGIDO: Sistema de sincronización con límites estrictos y timeouts
+ *
+ * Solo por eventos: cada ruta que modifica un inventario (pantallas de jugador y admin,
+ * BackpackManager.updateBackpackInventory, cambios remotos de otro servidor) llama a
+ * notifyInventoryChange o notifyPlayerChanged. No hay monitor periódico que recorra las mochilas observadas.
  */
 public class BackpackSyncManager {
 
-    private static final ConcurrentHashMap<String, Set<BackpackObserver>> activeObservers = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, AtomicLong> backpackVersions = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, BackpackSnapshot> lastSnapshots = new ConcurrentHashMap<>();
-
-    // CORREGIDO: Scheduler con límites estrictos y timeouts
-    private static final ScheduledExecutorService syncScheduler = new ScheduledThreadPoolExecutor(
-            2, // Core threads reducido
-            r -> {
-                Thread t = new Thread(r, "BackpackSync-RealTime-" + System.nanoTime());
-                t.setDaemon(true);
-                t.setUncaughtExceptionHandler((thread, ex) -> {
-                    BackpacksMod.LOGGER.error("Uncaught exception in sync thread: " + thread.getName(), ex);
-                });
-                return t;
-            }
-    );
-
-    private static final ExecutorService syncExecutor = new ThreadPoolExecutor(
-            2, // Core threads
-            4, // Max threads (reducido)
-            30L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(50), // Cola limitada
-            r -> {
-                Thread t = new Thread(r, "BackpackSync-Operations-" + System.nanoTime());
-                t.setDaemon(true);
-                t.setUncaughtExceptionHandler((thread, ex) -> {
-                    BackpacksMod.LOGGER.error("Uncaught exception in sync operations: " + thread.getName(), ex);
-                });
-                return t;
-            },
-            new ThreadPoolExecutor.DiscardOldestPolicy() // Descartar tareas antiguas si está lleno
-    );
-
-    private static final ConcurrentHashMap<String, ScheduledFuture<?>> pendingSyncs = new ConcurrentHashMap<>();
-    private static final long SYNC_DEBOUNCE_MS = 100; // Aumentado para reducir carga
-    private static final long MAX_SNAPSHOT_AGE = 30000; // 30 segundos max
-
-    private static ScheduledFuture<?> continuousMonitor;
+    private static final ConcurrentHashMap<BackpackKey, Set<BackpackObserver>> activeObservers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<BackpackKey, AtomicLong> backpackVersions = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<BackpackKey, BackpackSnapshot> lastSnapshots = new ConcurrentHashMap<>();
+
+    // Sync pendiente de cada mochila (como mucho uno) y cola de los que esperan su tick
+    private static final ConcurrentHashMap<BackpackKey, SyncState> syncStates = new ConcurrentHashMap<>();
+    private static final ConcurrentLinkedQueue<SyncState> queuedSyncs = new ConcurrentLinkedQueue<>();
+    private static volatile int currentTick = 0;
+    // Slots cambiados desde el último sync de cada mochila
+    private static final ConcurrentHashMap<BackpackKey, BitSet> pendingSlots = new ConcurrentHashMap<>();
+    // Marcador de pendingSlots: cambio sin slots concretos (remoto, conflicto), se compara contra el snapshot
+    private static final BitSet ALL_SLOTS = new BitSet();
+    private static final int SYNC_DEBOUNCE_TICKS = 2; // 100 ms
+    private static final int INITIAL_SYNC_TICKS = 1;
+    // Un jugador haciendo clicks seguidos no puede retrasar el sync más de esto
+    private static final int MAX_SYNC_DELAY_TICKS = 10;
+
     private static final AtomicBoolean isShuttingDown = new AtomicBoolean(false);
 
     public interface BackpackObserver {
@@ -62,53 +46,158 @@ public class BackpackSyncManager {
 
         UUID getPlayerId();
 
-        void onInventoryChanged(DefaultedList<ItemStack> newInventory, long version);
+        void onInventoryChanged(InventoryDelta delta);
 
         boolean isValid();
     }
 
+    /**
+     * Clave de las mochilas observadas: el UUID del dueño como dos long más el id, con el hash precalculado.
+     * Evita construir y parsear "uuid:id" en cada notificación.
+     */
+    private static final class BackpackKey {
+        private final long mostBits;
+        private final long leastBits;
+        private final int backpackId;
+        private final int hash;
+
+        BackpackKey(UUID playerId, int backpackId) {
+            this.mostBits = playerId.getMostSignificantBits();
+            this.leastBits = playerId.getLeastSignificantBits();
+            this.backpackId = backpackId;
+            this.hash = 31 * playerId.hashCode() + backpackId;
+        }
+
+        int backpackId() {
+            return backpackId;
+        }
+
+        boolean isOwnedBy(UUID playerId) {
+            return mostBits == playerId.getMostSignificantBits() && leastBits == playerId.getLeastSignificantBits();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof BackpackKey key && key.backpackId == backpackId &&
+                    key.mostBits == mostBits && key.leastBits == leastBits;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return new UUID(mostBits, leastBits) + ":" + backpackId;
+        }
+    }
+
+    /**
+     * Estado de sync de una mochila. queued garantiza un único sync pendiente: los cambios repetidos solo
+     * retrasan dueTick (hasta deadlineTick) sin tocar el scheduler ni reservar memoria.
+     */
+    private static final class SyncState {
+        private final BackpackKey key;
+        private final UUID targetPlayerId;
+        private final int backpackId;
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+        private volatile int dueTick;
+        private volatile int deadlineTick;
+
+        SyncState(BackpackKey key, UUID targetPlayerId, int backpackId) {
+            this.key = key;
+            this.targetPlayerId = targetPlayerId;
+            this.backpackId = backpackId;
+        }
+    }
+
     public enum ObserverType {
         PLAYER,
         ADMIN
     }
 
+    /**
+     * Cambio enviado a los observadores: solo los slots modificados (stacks[i] vale para cada i de slots,
+     * el resto es null). Los stacks son compartidos entre observadores: no modificarlos.
+     * Los deltas de una mochila pueden llegar desordenados: se aplican slot a slot con SlotVersions.
+     */
+    public record InventoryDelta(BitSet slots, ItemStack[] stacks, long version) {
+    }
+
+    /**
+     * Hash de cada slot tal como lo recibieron los observadores por última vez. No guarda copias de los
+     * stacks: detectar un cambio es comparar un long por slot, y solo se recalculan los slots candidatos.
+     */
     private static class BackpackSnapshot {
-        private final DefaultedList<ItemStack> inventory;
-        private final long timestamp;
-        private final long version;
+        private final long[] slotHashes;
+        // false hasta el primer delta: sin estado previo se envía la mochila entera
+        private boolean primed;
 
-        public BackpackSnapshot(DefaultedList<ItemStack> inventory, long version) {
-            this.inventory = copyInventory(inventory);
-            this.timestamp = System.currentTimeMillis();
-            this.version = version;
+        public BackpackSnapshot(int size) {
+            this.slotHashes = new long[size];
         }
 
-        public boolean isDifferent(DefaultedList<ItemStack> other) {
-            if (inventory.size() != other.size()) return true;
-
-            for (int i = 0; i < inventory.size(); i++) {
-                if (!ItemStack.areEqual(inventory.get(i), other.get(i))) {
-                    return true;
+        public BackpackSnapshot(DefaultedList<ItemStack> inventory) {
+            this(inventory.size());
+            for (int i = 0; i < slotHashes.length; i++) {
+                slotHashes[i] = slotHash(inventory.get(i));
+            }
+            primed = true;
+        }
+
+        /**
+         * Delta con los slots de candidates (todos si es null) que difieren de current, o null si no cambió nada.
+         * Comparar, asignar la versión y copiar los stacks van bajo el mismo lock: si dos syncs de la misma
+         * mochila se solapan, las versiones siguen el orden en que leyeron el inventario.
+         */
+        public synchronized InventoryDelta createDelta(DefaultedList<ItemStack> current, BitSet candidates, AtomicLong versions) {
+            boolean full = !primed || candidates == null;
+            BitSet changed = new BitSet(slotHashes.length);
+            int size = Math.min(slotHashes.length, current.size());
+            for (int i = full ? 0 : candidates.nextSetBit(0);
+                 i >= 0 && i < size;
+                 i = full ? i + 1 : candidates.nextSetBit(i + 1)) {
+                long hash = slotHash(current.get(i));
+                if (!primed || hash != slotHashes[i]) {
+                    slotHashes[i] = hash;
+                    changed.set(i);
                 }
             }
-            return false;
-        }
-
-        public boolean isExpired() {
-            return (System.currentTimeMillis() - timestamp) > MAX_SNAPSHOT_AGE;
-        }
+            primed = true;
+            if (changed.isEmpty()) {
+                return null;
+            }
 
-        public DefaultedList<ItemStack> getInventory() {
-            return inventory;
+            // Una copia de cada slot cambiado, compartida por todos los observadores
+            ItemStack[] stacks = new ItemStack[slotHashes.length];
+            for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+                stacks[i] = current.get(i).copy();
+            }
+            return new InventoryDelta(changed, stacks, versions.incrementAndGet());
         }
 
-        public long getVersion() {
-            return version;
+        public boolean matchesSize(DefaultedList<ItemStack> inventory) {
+            return slotHashes.length == inventory.size();
         }
+    }
 
-        public long getTimestamp() {
-            return timestamp;
-        }
+    // Reservado para slots vacíos: el hash de un stack no vacío siempre tiene el bit alto a 1
+    private static final long EMPTY_SLOT_HASH = 0L;
+
+    /**
+     * Hash de 64 bits del contenido de un slot: id del item (bits 40-62), cantidad (32-39) y hash de los
+     * componentes (0-31). Dos stacks distintos solo colisionan con el mismo item, la misma cantidad y
+     * componentes con el mismo hash de 32 bits.
+     */
+    private static long slotHash(ItemStack stack) {
+        if (stack.isEmpty()) {
+            return EMPTY_SLOT_HASH;
+        }
+        return Long.MIN_VALUE
+                | ((long) (Item.getRawId(stack.getItem()) & 0x7FFFFF) << 40)
+                | ((long) (stack.getCount() & 0xFF) << 32)
+                | (stack.getComponents().hashCode() & 0xFFFFFFFFL);
     }
 
     // CORREGIDO: PlayerObserver con verificaciones de estado mejoradas
@@ -116,7 +205,6 @@ public class BackpackSyncManager {
         private final ServerPlayerEntity player;
         private final int backpackId;
         private final String observerId;
-        private volatile long lastUpdate = 0;
 
         public PlayerObserver(ServerPlayerEntity player, int backpackId) {
             this.player = player;
@@ -140,33 +228,25 @@ public class BackpackSyncManager {
         }
 
         @Override
-        public void onInventoryChanged(DefaultedList<ItemStack> newInventory, long version) {
+        public void onInventoryChanged(InventoryDelta delta) {
+            // Sin rate limiting aquí: el debounce de notifyInventoryChange ya lo limita y sin monitor
+            // un cambio descartado no se volvería a enviar
             if (!isValid() || isShuttingDown.get()) return;
 
-            long now = System.currentTimeMillis();
-            if (now - lastUpdate < 50) return; // Rate limiting
-
-            lastUpdate = now;
-
             try {
                 if (player.currentScreenHandler instanceof BackpackScreenHandler) {
                     BackpackScreenHandler handler = (BackpackScreenHandler) player.currentScreenHandler;
                     if (handler.getBackpackId() == backpackId) {
-                        // Ejecutar en el hilo principal del servidor con timeout
-                        CompletableFuture.runAsync(() -> {
-                            if (BackpacksMod.getServer() != null && !isShuttingDown.get()) {
-                                BackpacksMod.getServer().execute(() -> {
-                                    try {
-                                        handler.syncInventory(newInventory);
-                                    } catch (Exception e) {
-                                        BackpacksMod.LOGGER.warn("Error syncing inventory for player " + player.getName().getString());
-                                    }
-                                });
-                            }
-                        }).orTimeout(2, TimeUnit.SECONDS).exceptionally(ex -> {
-                            BackpacksMod.LOGGER.warn("Sync timeout for player " + player.getName().getString());
-                            return null;
-                        });
+                        // Ejecutar en el hilo principal del servidor (con el presupuesto por tick de la cola)
+                        if (BackpacksMod.getServer() != null && !isShuttingDown.get()) {
+                            MainThreadTaskQueue.post(() -> {
+                                try {
+                                    handler.syncInventory(delta);
+                                } catch (Exception e) {
+                                    BackpacksMod.LOGGER.warn("Error syncing inventory for player " + player.getName().getString());
+                                }
+                            });
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -187,7 +267,6 @@ public class BackpackSyncManager {
         private final UUID targetPlayerId;
         private final int backpackId;
         private final String observerId;
-        private volatile long lastUpdate = 0;
 
         public AdminObserver(ServerPlayerEntity admin, UUID targetPlayerId, int backpackId) {
             this.admin = admin;
@@ -212,32 +291,24 @@ public class BackpackSyncManager {
         }
 
         @Override
-        public void onInventoryChanged(DefaultedList<ItemStack> newInventory, long version) {
+        public void onInventoryChanged(InventoryDelta delta) {
+            // Sin rate limiting aquí: el debounce de notifyInventoryChange ya lo limita y sin monitor
+            // un cambio descartado no se volvería a enviar
             if (!isValid() || isShuttingDown.get()) return;
 
-            long now = System.currentTimeMillis();
-            if (now - lastUpdate < 50) return; // Rate limiting
-
-            lastUpdate = now;
-
             try {
                 if (admin.currentScreenHandler instanceof BackpackAdminEditScreenHandler) {
                     BackpackAdminEditScreenHandler handler = (BackpackAdminEditScreenHandler) admin.currentScreenHandler;
                     if (handler.getTargetPlayerId().equals(targetPlayerId) && handler.getBackpackId() == backpackId) {
-                        CompletableFuture.runAsync(() -> {
-                            if (BackpacksMod.getServer() != null && !isShuttingDown.get()) {
-                                BackpacksMod.getServer().execute(() -> {
-                                    try {
-                                        handler.syncInventory(newInventory);
-                                    } catch (Exception e) {
-                                        BackpacksMod.LOGGER.warn("Error syncing admin inventory");
-                                    }
-                                });
-                            }
-                        }).orTimeout(2, TimeUnit.SECONDS).exceptionally(ex -> {
-                            BackpacksMod.LOGGER.warn("Admin sync timeout");
-                            return null;
-                        });
+                        if (BackpacksMod.getServer() != null && !isShuttingDown.get()) {
+                            MainThreadTaskQueue.post(() -> {
+                                try {
+                                    handler.syncInventory(delta);
+                                } catch (Exception e) {
+                                    BackpacksMod.LOGGER.warn("Error syncing admin inventory");
+                                }
+                            });
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -256,7 +327,7 @@ public class BackpackSyncManager {
     public static void registerPlayerObserver(ServerPlayerEntity player, int backpackId) {
         if (isShuttingDown.get()) return;
 
-        String key = player.getUuid() + ":" + backpackId;
+        BackpackKey key = new BackpackKey(player.getUuid(), backpackId);
 
         // Verificar límite de observadores
         if (activeObservers.size() > 100) {
@@ -270,21 +341,14 @@ public class BackpackSyncManager {
         backpackVersions.computeIfAbsent(key, k -> new AtomicLong(1));
         updateSnapshotIfNeeded(key, player.getUuid(), backpackId);
 
-        // Sincronización inicial más rápida
-        CompletableFuture.runAsync(() -> {
-            try {
-                Thread.sleep(50); // Reducido
-                performImmediateSync(key, player.getUuid(), backpackId, null);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }, syncExecutor);
+        // Sincronización inicial más rápida (en el siguiente tick)
+        requestSync(key, player.getUuid(), backpackId, INITIAL_SYNC_TICKS);
     }
 
     public static void registerAdminObserver(ServerPlayerEntity admin, UUID targetPlayerId, int backpackId) {
         if (isShuttingDown.get()) return;
 
-        String key = targetPlayerId + ":" + backpackId;
+        BackpackKey key = new BackpackKey(targetPlayerId, backpackId);
 
         if (activeObservers.size() > 100) {
             cleanupObservers();
@@ -296,42 +360,96 @@ public class BackpackSyncManager {
         backpackVersions.computeIfAbsent(key, k -> new AtomicLong(1));
         updateSnapshotIfNeeded(key, targetPlayerId, backpackId);
 
-        CompletableFuture.runAsync(() -> {
-            try {
-                Thread.sleep(50);
-                performImmediateSync(key, targetPlayerId, backpackId, null);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }, syncExecutor);
+        requestSync(key, targetPlayerId, backpackId, INITIAL_SYNC_TICKS);
     }
 
     // CORREGIDO: Notificación de cambios con rate limiting
     public static void notifyInventoryChange(UUID targetPlayerId, int backpackId, UUID changedBy) {
+        notifyInventoryChange(targetPlayerId, backpackId, changedBy, null);
+    }
+
+    /**
+     * Cambio en slots concretos (changedSlots); null si no se sabe cuáles, entonces se compara toda la mochila
+     */
+    public static void notifyInventoryChange(UUID targetPlayerId, int backpackId, UUID changedBy, BitSet changedSlots) {
         if (isShuttingDown.get()) return;
+        if (changedSlots != null && changedSlots.isEmpty()) return;
+
+        BackpackKey key = new BackpackKey(targetPlayerId, backpackId);
+        if (!activeObservers.containsKey(key)) {
+            return; // Nadie la está viendo
+        }
 
-        String key = targetPlayerId + ":" + backpackId;
+        // Acumular los slots hasta el próximo sync
+        pendingSlots.compute(key, (k, pending) -> {
+            if (changedSlots == null || pending == ALL_SLOTS) {
+                return ALL_SLOTS;
+            }
+            if (pending == null) {
+                return (BitSet) changedSlots.clone();
+            }
+            pending.or(changedSlots);
+            return pending;
+        });
+
+        // Debounce: un único sync pendiente por mochila
+        requestSync(key, targetPlayerId, backpackId, SYNC_DEBOUNCE_TICKS);
+    }
 
-        // Cancelar sync pendiente
-        ScheduledFuture<?> pendingSync = pendingSyncs.get(key);
-        if (pendingSync != null && !pendingSync.isDone()) {
-            pendingSync.cancel(false);
+    private static void requestSync(BackpackKey key, UUID targetPlayerId, int backpackId, int delayTicks) {
+        SyncState state = syncStates.get(key);
+        if (state == null) {
+            state = syncStates.computeIfAbsent(key, k -> new SyncState(k, targetPlayerId, backpackId));
         }
 
-        // Programar nuevo sync con debounce
-        try {
-            ScheduledFuture<?> newSync = syncScheduler.schedule(() -> {
-                performImmediateSync(key, targetPlayerId, backpackId, changedBy);
-            }, SYNC_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        int now = currentTick;
+        if (state.queued.compareAndSet(false, true)) {
+            state.deadlineTick = now + MAX_SYNC_DELAY_TICKS;
+            state.dueTick = now + delayTicks;
+            queuedSyncs.add(state);
+        } else {
+            state.dueTick = Math.min(now + delayTicks, state.deadlineTick);
+        }
+    }
 
-            pendingSyncs.put(key, newSync);
-        } catch (RejectedExecutionException e) {
-            BackpacksMod.LOGGER.warn("Sync scheduler overloaded, skipping sync for " + key);
+    /**
+     * Lanza los syncs cuyo debounce ha vencido. Se llama en cada tick del servidor (END_SERVER_TICK).
+     */
+    public static void tick() {
+        int now = ++currentTick;
+        if (queuedSyncs.isEmpty() || isShuttingDown.get()) {
+            return;
+        }
+
+        for (Iterator<SyncState> it = queuedSyncs.iterator(); it.hasNext(); ) {
+            SyncState state = it.next();
+            if (now - state.dueTick < 0) {
+                continue;
+            }
+            it.remove();
+            // Antes de lanzarlo: un cambio a partir de aquí vuelve a encolar (sus slots los recoge este sync o el siguiente)
+            state.queued.set(false);
+            if (syncStates.get(state.key) == state) {
+                performImmediateSync(state.key, state.targetPlayerId, state.backpackId, null);
+            }
+        }
+    }
+
+    /**
+     * Cambio aplicado a todas las mochilas de un jugador (p.ej. datos de otro servidor): notifica las que tengan observadores
+     */
+    public static void notifyPlayerChanged(UUID targetPlayerId) {
+        if (isShuttingDown.get() || activeObservers.isEmpty()) return;
+
+        for (BackpackKey key : activeObservers.keySet()) {
+            if (key.isOwnedBy(targetPlayerId)) {
+                notifyInventoryChange(targetPlayerId, key.backpackId(), null);
+            }
         }
     }
 
     // CORREGIDO: Sincronización inmediata con timeout y error handling mejorado
-    private static void performImmediateSync(String key, UUID targetPlayerId, int backpackId, UUID changedBy) {
+    private static void performImmediateSync(BackpackKey key, UUID targetPlayerId, int backpackId, UUID changedBy) {
         if (isShuttingDown.get()) return;
 
         try {
@@ -343,15 +461,17 @@ public class BackpackSyncManager {
                     }
 
                     DefaultedList<ItemStack> currentInventory = backpack.getInventory();
-
-                    BackpackSnapshot lastSnapshot = lastSnapshots.get(key);
-                    if (lastSnapshot != null && !lastSnapshot.isDifferent(currentInventory) && !lastSnapshot.isExpired()) {
+                    BitSet candidates = pendingSlots.remove(key);
+
+                    // Sin snapshot fiable (o la mochila cambió de tamaño): uno vacío, que reenvía la mochila entera
+                    BackpackSnapshot snapshot = lastSnapshots.compute(key, (k, existing) ->
+                            existing != null && existing.matchesSize(currentInventory) ? existing : new BackpackSnapshot(currentInventory.size()));
+                    InventoryDelta delta = snapshot.createDelta(currentInventory, candidates == ALL_SLOTS ? null : candidates,
+                            backpackVersions.computeIfAbsent(key, k -> new AtomicLong(1)));
+                    if (delta == null) {
                         return; // Sin cambios
                     }
 
-                    long newVersion = backpackVersions.computeIfAbsent(key, k -> new AtomicLong(1)).incrementAndGet();
-                    lastSnapshots.put(key, new BackpackSnapshot(currentInventory, newVersion));
-
                     Set<BackpackObserver> observers = activeObservers.get(key);
                     if (observers == null || observers.isEmpty()) {
                         return;
@@ -375,11 +495,9 @@ public class BackpackSyncManager {
 
                     // Notificar observadores válidos
                     if (!validObservers.isEmpty()) {
-                        DefaultedList<ItemStack> syncInventory = copyInventory(currentInventory);
-
                         for (BackpackObserver observer : validObservers) {
                             try {
-                                observer.onInventoryChanged(syncInventory, newVersion);
+                                observer.onInventoryChanged(delta);
                             } catch (Exception e) {
                                 BackpacksMod.LOGGER.warn("Error notifying observer " + observer.getObserverId() + ": " + e.getMessage());
                             }
@@ -388,83 +506,21 @@ public class BackpackSyncManager {
 
                 } catch (Exception e) {
                     BackpacksMod.LOGGER.error("Error in immediate sync for " + key + ": " + e.getMessage());
-                } finally {
-                    pendingSyncs.remove(key);
                 }
-            }, syncExecutor).orTimeout(5, TimeUnit.SECONDS).exceptionally(ex -> {
+            }, BackpackScheduler.executor(BackpackScheduler.Lane.SYNC)).orTimeout(5, TimeUnit.SECONDS).exceptionally(ex -> {
                 BackpacksMod.LOGGER.warn("Sync timeout for " + key);
-                pendingSyncs.remove(key);
                 return null;
             });
 
         } catch (Exception e) {
             BackpacksMod.LOGGER.error("Error starting sync for " + key + ": " + e.getMessage());
-            pendingSyncs.remove(key);
         }
     }
 
-    // CORREGIDO: Monitoreo continuo con límites estrictos
-    private static void startContinuousMonitoring() {
-        if (continuousMonitor != null && !continuousMonitor.isDone()) {
-            return;
-        }
-
-        continuousMonitor = syncScheduler.scheduleAtFixedRate(() -> {
-            if (isShuttingDown.get()) return;
-
-            try {
-                // Limitar verificaciones para evitar sobrecarga
-                int maxChecks = Math.min(10, activeObservers.size());
-                int checked = 0;
-
-                for (Map.Entry<String, Set<BackpackObserver>> entry : activeObservers.entrySet()) {
-                    if (checked >= maxChecks || isShuttingDown.get()) break;
-
-                    if (entry.getValue().isEmpty()) continue;
-
-                    String key = entry.getKey();
-                    String[] parts = key.split(":");
-                    if (parts.length != 2) continue;
-
-                    try {
-                        UUID targetPlayerId = UUID.fromString(parts[0]);
-                        int backpackId = Integer.parseInt(parts[1]);
-
-                        MongoBackpackManager.BackpackData backpack = BackpackManager.getBackpack(targetPlayerId, backpackId);
-                        if (backpack != null) {
-                            BackpackSnapshot lastSnapshot = lastSnapshots.get(key);
-                            if (lastSnapshot == null || lastSnapshot.isDifferent(backpack.getInventory()) || lastSnapshot.isExpired()) {
-                                notifyInventoryChange(targetPlayerId, backpackId, null);
-                            }
-                        }
-                        checked++;
-                    } catch (Exception e) {
-                        // Continuar con la siguiente entrada
-                    }
-                }
-
-                // Limpieza periódica
-                if (Math.random() < 0.1) { // 10% de probabilidad
-                    cleanupObservers();
-                    cleanupOldSnapshots();
-                }
-
-            } catch (Exception e) {
-                BackpacksMod.LOGGER.error("Error in continuous monitoring: " + e.getMessage());
-            }
-        }, 200, 200, TimeUnit.MILLISECONDS); // Aumentado el intervalo
-    }
-
-    // NUEVO: Limpieza de snapshots antiguos
+    // NUEVO: Limpieza de snapshots de mochilas que ya nadie observa (los demás no caducan: son solo hashes)
     private static void cleanupOldSnapshots() {
         try {
-            Iterator<Map.Entry<String, BackpackSnapshot>> iterator = lastSnapshots.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, BackpackSnapshot> entry = iterator.next();
-                if (entry.getValue().isExpired()) {
-                    iterator.remove();
-                }
-            }
+            lastSnapshots.keySet().removeIf(key -> !activeObservers.containsKey(key));
         } catch (Exception e) {
             BackpacksMod.LOGGER.warn("Error cleaning up snapshots: " + e.getMessage());
         }
@@ -473,9 +529,9 @@ public class BackpackSyncManager {
     // CORREGIDO: Limpieza de observadores más agresiva
     private static void cleanupObservers() {
         try {
-            for (Iterator<Map.Entry<String, Set<BackpackObserver>>> it = activeObservers.entrySet().iterator(); it.hasNext(); ) {
-                Map.Entry<String, Set<BackpackObserver>> entry = it.next();
-                String key = entry.getKey();
+            for (Iterator<Map.Entry<BackpackKey, Set<BackpackObserver>>> it = activeObservers.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<BackpackKey, Set<BackpackObserver>> entry = it.next();
+                BackpackKey key = entry.getKey();
                 Set<BackpackObserver> observers = entry.getValue();
 
                 Iterator<BackpackObserver> obsIt = observers.iterator();
@@ -490,13 +546,12 @@ public class BackpackSyncManager {
                     it.remove();
                     backpackVersions.remove(key);
                     lastSnapshots.remove(key);
+                    pendingSlots.remove(key);
 
-                    ScheduledFuture<?> pendingSync = pendingSyncs.remove(key);
-                    if (pendingSync != null) {
-                        pendingSync.cancel(false);
-                    }
+                    syncStates.remove(key); // Si sigue en la cola, tick() lo descarta
                 }
             }
+            cleanupOldSnapshots();
         } catch (Exception e) {
             BackpacksMod.LOGGER.error("Error in cleanup: " + e.getMessage());
         }
@@ -506,8 +561,8 @@ public class BackpackSyncManager {
     public static void unregisterObserver(String observerId) {
         if (isShuttingDown.get()) return;
 
-        for (Map.Entry<String, Set<BackpackObserver>> entry : activeObservers.entrySet()) {
-            String key = entry.getKey();
+        for (Map.Entry<BackpackKey, Set<BackpackObserver>> entry : activeObservers.entrySet()) {
+            BackpackKey key = entry.getKey();
             Set<BackpackObserver> observers = entry.getValue();
 
             BackpackObserver toRemove = null;
@@ -525,11 +580,9 @@ public class BackpackSyncManager {
                     activeObservers.remove(key);
                     backpackVersions.remove(key);
                     lastSnapshots.remove(key);
+                    pendingSlots.remove(key);
 
-                    ScheduledFuture<?> pendingSync = pendingSyncs.remove(key);
-                    if (pendingSync != null) {
-                        pendingSync.cancel(false);
-                    }
+                    syncStates.remove(key); // Si sigue en la cola, tick() lo descarta
                 }
                 break;
             }
@@ -539,30 +592,27 @@ public class BackpackSyncManager {
     public static void unregisterPlayerObservers(UUID playerId) {
         if (isShuttingDown.get()) return;
 
-        for (Map.Entry<String, Set<BackpackObserver>> entry : activeObservers.entrySet()) {
+        for (Map.Entry<BackpackKey, Set<BackpackObserver>> entry : activeObservers.entrySet()) {
             entry.getValue().removeIf(obs -> obs.getPlayerId().equals(playerId));
 
             if (entry.getValue().isEmpty()) {
-                String key = entry.getKey();
+                BackpackKey key = entry.getKey();
                 activeObservers.remove(key);
                 backpackVersions.remove(key);
                 lastSnapshots.remove(key);
+                pendingSlots.remove(key);
 
-                ScheduledFuture<?> pendingSync = pendingSyncs.remove(key);
-                if (pendingSync != null) {
-                    pendingSync.cancel(false);
-                }
+                syncStates.remove(key); // Si sigue en la cola, tick() lo descarta
             }
         }
     }
 
-    private static void updateSnapshotIfNeeded(String key, UUID targetPlayerId, int backpackId) {
+    private static void updateSnapshotIfNeeded(BackpackKey key, UUID targetPlayerId, int backpackId) {
         if (!lastSnapshots.containsKey(key) && !isShuttingDown.get()) {
             try {
                 MongoBackpackManager.BackpackData backpack = BackpackManager.getBackpack(targetPlayerId, backpackId);
                 if (backpack != null) {
-                    long version = backpackVersions.get(key).get();
-                    lastSnapshots.put(key, new BackpackSnapshot(backpack.getInventory(), version));
+                    lastSnapshots.put(key, new BackpackSnapshot(backpack.getInventory()));
                 }
             } catch (Exception e) {
                 BackpacksMod.LOGGER.warn("Error updating snapshot: " + e.getMessage());
@@ -570,14 +620,6 @@ public class BackpackSyncManager {
         }
     }
 
-    private static DefaultedList<ItemStack> copyInventory(DefaultedList<ItemStack> original) {
-        DefaultedList<ItemStack> copy = DefaultedList.ofSize(original.size(), ItemStack.EMPTY);
-        for (int i = 0; i < original.size(); i++) {
-            copy.set(i, original.get(i).copy());
-        }
-        return copy;
-    }
-
     // CORREGIDO: Inicialización con verificaciones
     public static void initialize() {
         if (isShuttingDown.get()) return;
@@ -585,10 +627,11 @@ public class BackpackSyncManager {
         activeObservers.clear();
         backpackVersions.clear();
         lastSnapshots.clear();
-        pendingSyncs.clear();
+        syncStates.clear();
+        queuedSyncs.clear();
+        pendingSlots.clear();
 
-        startContinuousMonitoring();
-        BackpacksMod.LOGGER.info("BackpackSyncManager initialized with performance optimizations");
+        BackpacksMod.LOGGER.info("BackpackSyncManager initialized (event-driven)");
     }
 
     // CORREGIDO: Shutdown seguro con timeouts
@@ -597,41 +640,23 @@ public class BackpackSyncManager {
         isShuttingDown.set(true);
 
         try {
-            // Parar monitor continuo
-            if (continuousMonitor != null) {
-                continuousMonitor.cancel(true);
-            }
+            // Descartar syncs pendientes
+            queuedSyncs.clear();
 
-            // Cancelar syncs pendientes
-            for (ScheduledFuture<?> future : pendingSyncs.values()) {
-                future.cancel(true);
-            }
-
-            // Shutdown schedulers con timeout
-            syncScheduler.shutdown();
-            syncExecutor.shutdown();
-
-            if (!syncScheduler.awaitTermination(3, TimeUnit.SECONDS)) {
-                syncScheduler.shutdownNow();
-            }
-
-            if (!syncExecutor.awaitTermination(3, TimeUnit.SECONDS)) {
-                syncExecutor.shutdownNow();
-            }
+            // Los hilos son del BackpackScheduler: esperar a que terminen los syncs en curso
+            BackpackScheduler.awaitIdle(BackpackScheduler.Lane.SYNC, 3000);
 
             // Limpiar estructuras
             activeObservers.clear();
             backpackVersions.clear();
             lastSnapshots.clear();
-            pendingSyncs.clear();
+            syncStates.clear();
+            pendingSlots.clear();
 
             BackpacksMod.LOGGER.info("BackpackSyncManager shut down successfully");
 
-        } catch (InterruptedException e) {
-            syncScheduler.shutdownNow();
-            syncExecutor.shutdownNow();
-            Thread.currentThread().interrupt();
-            BackpacksMod.LOGGER.warn("Interrupted during shutdown");
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.warn("Error during sync shutdown: " + e.getMessage());
         }
     }
 
@@ -0,0 +1,394 @@
+// NUEVO: BackpackWriteAheadLog.java - Diario local de cambios pendientes de guardar
+package es.minemon.backpacks;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log en segmentos mapeados en memoria. Cada mochila modificada se anota completa antes de que
+ * el write-behind la escriba en el almacenamiento; cuando la escritura se confirma se anota un ACK para el
+ * jugador. Al arrancar se reaplican las anotaciones sin ACK (caída del proceso o almacenamiento caído).
+ *
+ * Registro: [longitud int][crc32 int][documento BSON]; una longitud 0 marca el final del segmento.
+ * Un segmento se borra cuando todas sus anotaciones están confirmadas o sustituidas por otras más nuevas.
+ */
+public class BackpackWriteAheadLog implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private final Deque<Segment> sealed = new ArrayDeque<>();
+    private Segment active;
+    private long nextSeq = 1;
+    private boolean closed = false;
+
+    // Última anotación de cada mochila y último ACK de cada jugador
+    private final Map<JournalKey, Long> latest = new HashMap<>();
+    private final Map<UUID, Long> acked = new HashMap<>();
+
+    // Anotaciones sin confirmar encontradas al abrir (solo hasta que se recuperan)
+    private final Map<UUID, Map<Integer, Document>> recovered = new HashMap<>();
+
+    private long appendedRecords = 0;
+    private long releasedSegments = 0;
+
+    private record JournalKey(UUID playerId, int backpackId) {}
+
+    private static class Segment {
+        private final long index;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // Última secuencia de cada mochila anotada en este segmento
+        private final Map<JournalKey, Long> entries = new HashMap<>();
+
+        private Segment(long index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    public BackpackWriteAheadLog(Path directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+
+        long lastIndex = 0;
+        for (Path file : listSegments()) {
+            long index = parseIndex(file);
+            sealed.addLast(readSegment(index, file));
+            lastIndex = Math.max(lastIndex, index);
+        }
+        collectRecovered();
+
+        active = createSegment(lastIndex + 1, segmentSize);
+        BackpacksMod.LOGGER.info("Write-ahead log opened: " + directory + " (" + sealed.size() +
+                " old segments, " + recovered.size() + " players to recover)");
+    }
+
+    /**
+     * Anota el contenido completo de una mochila (backpack null = eliminada). Devuelve la secuencia asignada.
+     */
+    public synchronized long append(UUID playerId, int backpackId, Document backpack) throws IOException {
+        long seq = nextSeq++;
+        Document record = new Document("t", backpack != null ? "b" : "r")
+                .append("p", playerId.toString())
+                .append("s", seq)
+                .append("id", backpackId);
+        if (backpack != null) {
+            record.append("d", backpack);
+        }
+        write(record);
+
+        JournalKey key = new JournalKey(playerId, backpackId);
+        active.entries.put(key, seq);
+        latest.put(key, seq);
+        return seq;
+    }
+
+    /**
+     * Confirma que todo lo anotado para cada jugador hasta la secuencia indicada ya está en el almacenamiento
+     */
+    public synchronized void acknowledge(Map<UUID, Long> writes) {
+        for (Map.Entry<UUID, Long> entry : writes.entrySet()) {
+            long previous = acked.getOrDefault(entry.getKey(), 0L);
+            if (entry.getValue() <= previous) {
+                continue;
+            }
+            try {
+                write(new Document("t", "a").append("p", entry.getKey().toString()).append("s", entry.getValue()));
+                acked.put(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                // Sin ACK solo se reaplica de más al arrancar, nunca se pierde nada
+                BackpacksMod.LOGGER.warn("Write-ahead log: could not record ack for " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Mochilas anotadas y sin confirmar al abrir el log, por jugador (documento null = mochila eliminada).
+     * Solo se devuelven una vez.
+     */
+    public synchronized Map<UUID, Map<Integer, Document>> takeRecovered() {
+        Map<UUID, Map<Integer, Document>> result = new HashMap<>(recovered);
+        recovered.clear();
+        return result;
+    }
+
+    /**
+     * Vuelca el segmento activo a disco y borra los segmentos que ya no contienen nada pendiente
+     */
+    public void sync() {
+        MappedByteBuffer buffer;
+        synchronized (this) {
+            if (closed) return;
+            buffer = active.buffer;
+        }
+        // force() fuera del lock: las anotaciones del hilo del servidor no esperan al disco
+        buffer.force();
+        releaseSegments();
+    }
+
+    // Siempre en orden: un ACK no puede desaparecer mientras quede un segmento anterior con lo que confirma
+    private synchronized void releaseSegments() {
+        while (!sealed.isEmpty() && isReleasable(sealed.peekFirst())) {
+            Segment segment = sealed.peekFirst();
+            try {
+                Files.deleteIfExists(segment.file);
+                sealed.pollFirst();
+                releasedSegments++;
+            } catch (IOException e) {
+                BackpacksMod.LOGGER.debug("Write-ahead log: segment " + segment.file + " not deleted yet: " + e.getMessage());
+                break;
+            }
+        }
+
+        // Olvidar las mochilas cuya última anotación ya está confirmada
+        latest.entrySet().removeIf(entry -> acked.getOrDefault(entry.getKey().playerId(), 0L) >= entry.getValue());
+    }
+
+    private boolean isReleasable(Segment segment) {
+        for (Map.Entry<JournalKey, Long> entry : segment.entries.entrySet()) {
+            long seq = entry.getValue();
+            boolean confirmed = acked.getOrDefault(entry.getKey().playerId(), 0L) >= seq;
+            boolean superseded = latest.getOrDefault(entry.getKey(), 0L) > seq;
+            if (!confirmed && !superseded) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Jugadores con anotaciones sin confirmar que impiden borrar el segmento más antiguo. Si se vuelven a
+     * anotar (su copia en cache es más reciente) el segmento queda sustituido y se puede liberar.
+     */
+    public synchronized Set<UUID> getPlayersBlockingRelease(int maxSealedSegments) {
+        Set<UUID> players = new HashSet<>();
+        if (sealed.size() <= maxSealedSegments) {
+            return players;
+        }
+        for (Map.Entry<JournalKey, Long> entry : sealed.peekFirst().entries.entrySet()) {
+            long seq = entry.getValue();
+            UUID playerId = entry.getKey().playerId();
+            if (acked.getOrDefault(playerId, 0L) < seq && latest.getOrDefault(entry.getKey(), 0L) <= seq) {
+                players.add(playerId);
+            }
+        }
+        return players;
+    }
+
+    public synchronized boolean hasPendingEntries() {
+        for (Map.Entry<JournalKey, Long> entry : latest.entrySet()) {
+            if (acked.getOrDefault(entry.getKey().playerId(), 0L) < entry.getValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized String getStats() {
+        return String.format("%d segments, %d records, %d segments released, %d players acked",
+                sealed.size() + 1, appendedRecords, releasedSegments, acked.size());
+    }
+
+    private void write(Document record) throws IOException {
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+        byte[] bytes = encode(record);
+        int size = HEADER_SIZE + bytes.length;
+        // Dejar sitio para el marcador de fin (longitud 0)
+        if (active.buffer.remaining() < size + 4) {
+            rotate(size + 4);
+        }
+
+        active.buffer.putInt(bytes.length);
+        active.buffer.putInt(checksum(bytes));
+        active.buffer.put(bytes);
+        appendedRecords++;
+    }
+
+    private void rotate(int needed) throws IOException {
+        active.buffer.force();
+        sealed.addLast(active);
+        active = createSegment(active.index + 1, Math.max(segmentSize, needed));
+    }
+
+    private Segment createSegment(long index, int size) throws IOException {
+        Path file = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // El mapeo sigue siendo válido después de cerrar el canal
+            return new Segment(index, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private Segment readSegment(long index, Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Segment segment = new Segment(index, file, buffer);
+
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break; // Final del segmento o registro incompleto
+            }
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            if (checksum(bytes) != crc) {
+                BackpacksMod.LOGGER.warn("Write-ahead log: corrupt record in " + file + ", ignoring the rest of the segment");
+                break;
+            }
+            replayRecord(segment, decode(bytes));
+        }
+        return segment;
+    }
+
+    private void replayRecord(Segment segment, Document record) {
+        UUID playerId;
+        try {
+            playerId = UUID.fromString(record.getString("p"));
+        } catch (Exception e) {
+            return;
+        }
+        long seq = record.get("s") instanceof Number number ? number.longValue() : 0;
+        nextSeq = Math.max(nextSeq, seq + 1);
+
+        if ("a".equals(record.getString("t"))) {
+            acked.merge(playerId, seq, Math::max);
+            return;
+        }
+
+        Integer backpackId = record.getInteger("id");
+        if (backpackId == null) return;
+        JournalKey key = new JournalKey(playerId, backpackId);
+        segment.entries.put(key, seq);
+        latest.merge(key, seq, Math::max);
+    }
+
+    // Segunda pasada: el contenido de la última anotación sin confirmar de cada mochila
+    private void collectRecovered() throws IOException {
+        for (Segment segment : sealed) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.rewind();
+            while (buffer.remaining() >= HEADER_SIZE) {
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                if (checksum(bytes) != crc) {
+                    break;
+                }
+
+                Document record = decode(bytes);
+                if ("a".equals(record.getString("t")) || record.getInteger("id") == null) {
+                    continue;
+                }
+                UUID playerId = UUID.fromString(record.getString("p"));
+                long seq = ((Number) record.get("s")).longValue();
+                JournalKey key = new JournalKey(playerId, record.getInteger("id"));
+                if (latest.getOrDefault(key, 0L) != seq || acked.getOrDefault(playerId, 0L) >= seq) {
+                    continue; // Sustituida por otra posterior o ya confirmada
+                }
+                recovered.computeIfAbsent(playerId, id -> new HashMap<>())
+                        .put(key.backpackId(), record.get("d", Document.class));
+            }
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                if (parseIndex(file) >= 0) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(BackpackWriteAheadLog::parseIndex));
+        return files;
+    }
+
+    private static long parseIndex(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static byte[] encode(Document doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            CODEC.encode(writer, doc, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Document decode(byte[] bytes) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+            return CODEC.decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Cierra el log. Si no queda nada sin confirmar se borran todos los segmentos.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        active.buffer.force();
+        releaseSegments();
+
+        if (!hasPendingEntries() && recovered.isEmpty()) {
+            sealed.addLast(active);
+            for (Segment segment : sealed) {
+                try {
+                    Files.deleteIfExists(segment.file);
+                } catch (IOException e) {
+                    BackpacksMod.LOGGER.debug("Write-ahead log: could not delete " + segment.file + ": " + e.getMessage());
+                }
+            }
+            sealed.clear();
+            BackpacksMod.LOGGER.info("Write-ahead log closed cleanly, all changes confirmed");
+        } else {
+            BackpacksMod.LOGGER.warn("Write-ahead log closed with unconfirmed changes, they will be replayed on next start");
+        }
+    }
+}
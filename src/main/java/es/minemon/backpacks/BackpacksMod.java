@@ -31,6 +31,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 
 	// Contadores optimizados (solo cache cleanup)
 	private static final AtomicInteger cacheCleanupCounter = new AtomicInteger(0);
+	private static final AtomicInteger writeBehindCounter = new AtomicInteger(0);
 	private static final int CACHE_CLEANUP_INTERVAL = 36000; // 30 minutos
 	private static final int HEALTH_CHECK_INTERVAL = 12000; // 10 minutos
 
@@ -39,19 +40,18 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 		LOGGER.info("Iniciando BackpacksMod v3.1.0 - Optimizado SIN backups");
 
 		try {
-			// Inicializar componentes esenciales con timeout
-			CompletableFuture<Void> initTask = CompletableFuture.runAsync(() -> {
-				try {
-					LanguageManager.initialize();
-					ConfigManager.initialize();
-					LOGGER.info("Configuration initialized successfully");
-				} catch (Exception e) {
-					LOGGER.error("Critical error initializing configuration", e);
-					throw new RuntimeException("Configuration initialization failed", e);
-				}
-			});
+			// Inicializar componentes esenciales (en este hilo: son lecturas de ficheros locales)
+			try {
+				LanguageManager.initialize();
+				ConfigManager.initialize();
+				LOGGER.info("Configuration initialized successfully");
+			} catch (Exception e) {
+				LOGGER.error("Critical error initializing configuration", e);
+				throw new RuntimeException("Configuration initialization failed", e);
+			}
 
-			initTask.get(10, TimeUnit.SECONDS);
+			// NUEVO: Hilos del mod (depende de la configuración, antes que cualquier gestor)
+			BackpackScheduler.initialize();
 
 		} catch (Exception e) {
 			LOGGER.error("Failed to initialize core components", e);
@@ -140,6 +140,11 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 		ServerLifecycleEvents.SERVER_STARTED.register(server -> {
 			BackpacksMod.server = server;
 
+			// NUEVO: Reaplicar cambios no guardados antes de que entren jugadores (necesita el registro de items)
+			if (mongoManager != null) {
+				mongoManager.openWriteAheadLog();
+			}
+
 			try {
 				LuckPermsManager.initialize();
 				LOGGER.info("Permission system: " + LuckPermsManager.getPermissionSystemInfo());
@@ -148,7 +153,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 
 				LOGGER.info("=== ADMINISTRATION INFO ===");
 				LOGGER.info("Console has full administrative privileges");
-				LOGGER.info("NO backup system - data relies on MongoDB only");
+				LOGGER.info("NO backup system - unsaved changes are journaled in the local write-ahead log");
 				LOGGER.info("Health monitoring active every 10 minutes");
 				LOGGER.info("==========================");
 
@@ -163,6 +168,12 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 			isShuttingDown.set(true);
 			isFullyReady.set(false);
 
+			// Entregas pendientes en el hilo principal antes del guardado final
+			MainThreadTaskQueue.drainAll();
+			if (mongoManager != null) {
+				mongoManager.journalDirtyPlayers();
+			}
+
 			try {
 				// 1. Parar sincronización
 				CompletableFuture<Void> syncShutdown = CompletableFuture.runAsync(() -> {
@@ -172,7 +183,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 					} catch (Exception e) {
 						LOGGER.error("Error shutting down sync system", e);
 					}
-				});
+				}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
 
 				// 2. Guardar datos MongoDB (MÁS TIEMPO SIN BACKUPS)
 				CompletableFuture<Void> mongoSave = CompletableFuture.runAsync(() -> {
@@ -184,7 +195,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 							LOGGER.error("Error saving MongoDB data", e);
 						}
 					}
-				});
+				}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
 
 				// Más tiempo para guardado sin presión de backups
 				CompletableFuture.allOf(syncShutdown, mongoSave)
@@ -210,17 +221,33 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 					} catch (Exception e) {
 						LOGGER.error("Error in final cleanup", e);
 					}
-				});
+				}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
 
 				finalCleanup.get(5, TimeUnit.SECONDS);
 
 			} catch (Exception e) {
 				LOGGER.error("Error during final cleanup", e);
+			} finally {
+				// NUEVO: Parar los hilos del mod una vez cerrado el almacenamiento
+				BackpackRenameManager.shutdown();
+				BackpackScheduler.shutdown();
 			}
 		});
 
 		// SIMPLIFICADO: Tick sin backup manager
 		ServerTickEvents.END_SERVER_TICK.register(server -> {
+			// NUEVO: Tareas del mod en el hilo principal, repartidas entre ticks según el presupuesto
+			MainThreadTaskQueue.drain();
+			// NUEVO: Syncs de mochilas observadas cuyo debounce ha vencido
+			BackpackSyncManager.tick();
+
+			// NUEVO: Anotar en el write-ahead log lo modificado en este tick, antes del guardado asíncrono
+			if (mongoManager != null) {
+				mongoManager.journalDirtyPlayers();
+				// Modo degradado: comprobar si el almacenamiento ha vuelto (con espera exponencial)
+				mongoManager.probeStorageIfDue();
+			}
+
 			if (isShuttingDown.get() || !isFullyReady.get()) {
 				return;
 			}
@@ -237,7 +264,16 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 							} catch (Exception e) {
 								LOGGER.warn("Error in cache cleanup: " + e.getMessage());
 							}
-						});
+						}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
+					}
+				}
+
+				// Write-behind: volcar jugadores modificados en lotes
+				int writeCount = writeBehindCounter.incrementAndGet();
+				if (writeCount >= ConfigManager.getConfig().writeBehindIntervalSeconds * 20) {
+					writeBehindCounter.set(0);
+					if (mongoManager != null) {
+						mongoManager.requestWriteBehindFlush();
 					}
 				}
 
@@ -265,6 +301,11 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 		return mongoManager;
 	}
 
+	// Backend de persistencia configurado (MongoDB o fichero local)
+	public static BackpackStorage getStorage() {
+		return mongoManager != null ? mongoManager.getStorage() : null;
+	}
+
 	// ELIMINADO: getBackupManager() - ya no existe
 
 	public static boolean isFullyInitialized() {
@@ -295,7 +336,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 				} catch (Exception e) {
 					LOGGER.error("Error in emergency save", e);
 				}
-			});
+			}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
 
 			emergencyTask.get(20, TimeUnit.SECONDS); // Más tiempo sin backups
 			LOGGER.warn("=== EMERGENCY SAVE COMPLETED ===");
@@ -323,7 +364,12 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 				issues++;
 			} else {
 				boolean hasPendingWrites = mongoManager.hasPendingWrites();
-				if (hasPendingWrites) {
+				if (mongoManager.isDegraded()) {
+					healthReport.append("❌ MongoDB: Unreachable, degraded mode (").append(mongoManager.getDegradedStats()).append(")\n");
+					allHealthy = false;
+					issues++;
+					mongoManager.probeStorageIfDue();
+				} else if (hasPendingWrites) {
 					healthReport.append("⚠️ MongoDB: Has pending writes\n");
 				} else {
 					healthReport.append("✅ MongoDB: Healthy\n");
@@ -407,7 +453,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 			stats.append("- Memory usage: ").append(String.format("%.1f", (double) usedMemory / totalMemory * 100)).append("%\n");
 
 			if (mongoManager != null) {
-				stats.append("- MongoDB: Connected\n");
+				stats.append("- Storage: ").append(mongoManager.getStorage().getName()).append("\n");
 				stats.append("- Pending writes: ").append(mongoManager.hasPendingWrites() ? "Yes" : "No").append("\n");
 			}
 
@@ -442,7 +488,7 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 				} catch (Exception e) {
 					LOGGER.error("Error during system cleanup", e);
 				}
-			});
+			}, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
 
 			cleanupTask.get(10, TimeUnit.SECONDS);
 
@@ -474,8 +520,17 @@ public class BackpacksMod implements DedicatedServerModInitializer {
 			// MongoDB status
 			if (mongoManager != null) {
 				metrics.append("MongoDB pending writes: ").append(mongoManager.hasPendingWrites() ? "Yes" : "No").append("\n");
+				metrics.append("Backpack cache: ").append(mongoManager.getCacheStats()).append("\n");
+				metrics.append("Item compression: ").append(ItemPayloadCompression.getStats()).append("\n");
+				metrics.append("Mongo queues: ").append(mongoManager.getQueueStats()).append("\n");
+				metrics.append("Version conflicts merged: ").append(mongoManager.getVersionConflicts()).append("\n");
+				metrics.append("Cross-server sync: ").append(mongoManager.getCrossServerStats()).append("\n");
+				metrics.append("Write-ahead log: ").append(mongoManager.getWriteAheadLogStats()).append("\n");
+				metrics.append("Degraded mode: ").append(mongoManager.getDegradedStats()).append("\n");
 			}
 
+			metrics.append("Scheduler: ").append(BackpackScheduler.getStats()).append("\n");
+			metrics.append("Main thread queue: ").append(MainThreadTaskQueue.getStats()).append("\n");
 			metrics.append("Backup system: DISABLED\n");
 			metrics.append("Performance impact: MINIMAL\n");
 
@@ -123,6 +123,10 @@ public class ConfigManager {
         };
     }
 
+    public static Path getConfigDirectory() {
+        return Paths.get(CONFIG_DIR);
+    }
+
     public static boolean validateConfiguration() {
         try {
             config.validateUserConfig();
@@ -0,0 +1,263 @@
+// NUEVO: ItemPayloadCompression.java - Compresión del NBT de los items con diccionario compartido
+package es.minemon.backpacks;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Comprime el NBT binario de cada item (deflate) con un diccionario entrenado a partir de items reales:
+ * los payloads de un servidor se parecen mucho entre sí (mismos ids y claves de componentes), así que
+ * un payload pequeño comprime bien solo si el compresor ya conoce esas cadenas.
+ *
+ * Item comprimido: {data: deflate(nbt), count, zd: id del diccionario (0 = sin diccionario)}.
+ * Sin zd, data es el NBT tal cual. Los diccionarios se guardan en el documento auxiliar "compression" del
+ * almacenamiento y nunca se borran: los items escritos con uno antiguo deben poder leerse siempre.
+ */
+public class ItemPayloadCompression {
+    public static final String DICTIONARY_FIELD = "zd";
+    private static final String META_KEY = "compression";
+
+    // Por debajo de esto no compensa (cabecera de deflate)
+    private static final int MIN_PAYLOAD_SIZE = 48;
+    // Ventana de deflate: lo que quede más lejos del diccionario no se usa
+    private static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    private static final int MIN_TRAINING_SAMPLES = 32;
+
+    private static volatile BackpackStorage storage;
+    private static final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private static volatile int currentDictionary = 0;
+
+    private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<>();
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    private static final AtomicLong payloadsWritten = new AtomicLong(0);
+    private static final AtomicLong payloadsCompressed = new AtomicLong(0);
+    private static final AtomicLong rawBytes = new AtomicLong(0);
+    private static final AtomicLong storedBytes = new AtomicLong(0);
+    private static final AtomicLong payloadsInflated = new AtomicLong(0);
+
+    /**
+     * Carga los diccionarios guardados. Se llama al crear el almacenamiento.
+     */
+    public static void initialize(BackpackStorage backend) {
+        storage = backend;
+        try {
+            reloadDictionaries();
+            BackpacksMod.LOGGER.info("Item compression: " + (isEnabled() ? "enabled" : "disabled") +
+                    ", " + dictionaries.size() + " dictionaries (current " + currentDictionary + ")");
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.warn("Item compression: could not load dictionaries: " + e.getMessage());
+        }
+    }
+
+    private static synchronized void reloadDictionaries() throws Exception {
+        BackpackStorage backend = storage;
+        Document meta = backend != null ? backend.loadMeta(META_KEY) : null;
+        if (meta == null) {
+            return;
+        }
+        if (meta.get("dictionaries") instanceof Document stored) {
+            for (Map.Entry<String, Object> entry : stored.entrySet()) {
+                if (entry.getValue() instanceof Binary binary) {
+                    dictionaries.put(Integer.parseInt(entry.getKey()), binary.getData());
+                }
+            }
+        }
+        if (meta.get("current") instanceof Number current && dictionaries.containsKey(current.intValue())) {
+            currentDictionary = current.intValue();
+        }
+    }
+
+    public static boolean isEnabled() {
+        BackpackConfig config = ConfigManager.getConfig();
+        return config != null && config.compressItemPayloads;
+    }
+
+    /**
+     * Pone el NBT en itemDoc ("data"), comprimido si está activado y sale más pequeño
+     */
+    public static void putPayload(Document itemDoc, byte[] nbt) {
+        payloadsWritten.incrementAndGet();
+        rawBytes.addAndGet(nbt.length);
+
+        if (isEnabled() && nbt.length >= MIN_PAYLOAD_SIZE) {
+            int dictionaryId = currentDictionary;
+            byte[] compressed = deflate(nbt, dictionaries.get(dictionaryId));
+            if (compressed.length < nbt.length) {
+                payloadsCompressed.incrementAndGet();
+                storedBytes.addAndGet(compressed.length);
+                itemDoc.put("data", new Binary(compressed));
+                itemDoc.put(DICTIONARY_FIELD, dictionaryId);
+                return;
+            }
+        }
+
+        storedBytes.addAndGet(nbt.length);
+        itemDoc.put("data", new Binary(nbt));
+    }
+
+    /**
+     * NBT de un item guardado (descomprimido si hace falta)
+     */
+    public static byte[] payloadBytes(Document itemDoc) throws DataFormatException {
+        Binary data = (Binary) itemDoc.get("data");
+        if (!(itemDoc.get(DICTIONARY_FIELD) instanceof Number dictionaryId)) {
+            return data.getData();
+        }
+        payloadsInflated.incrementAndGet();
+        return inflate(data.getData(), dictionaryId.intValue());
+    }
+
+    private static byte[] deflate(byte[] input, byte[] dictionary) {
+        Deflater deflater = deflaters.get();
+        int level = ConfigManager.getConfig().compressionLevel;
+        if (deflater == null) {
+            deflater = new Deflater(level);
+            deflaters.set(deflater);
+        }
+        deflater.reset();
+        deflater.setLevel(level);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+        byte[] buffer = new byte[Math.max(64, input.length)];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] input, int dictionaryId) throws DataFormatException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(input);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 4);
+        byte[] buffer = new byte[Math.max(256, input.length * 4)];
+        while (!inflater.finished()) {
+            int read = inflater.inflate(buffer);
+            if (read == 0) {
+                if (!inflater.needsDictionary()) {
+                    throw new DataFormatException("Truncated compressed item payload");
+                }
+                inflater.setDictionary(requireDictionary(dictionaryId));
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    // Diccionario entrenado en otro servidor: se recarga del almacenamiento una vez
+    private static byte[] requireDictionary(int dictionaryId) throws DataFormatException {
+        byte[] dictionary = dictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            try {
+                reloadDictionaries();
+            } catch (Exception e) {
+                throw new DataFormatException("Cannot load compression dictionary " + dictionaryId + ": " + e.getMessage());
+            }
+            dictionary = dictionaries.get(dictionaryId);
+        }
+        if (dictionary == null) {
+            throw new DataFormatException("Unknown compression dictionary " + dictionaryId);
+        }
+        return dictionary;
+    }
+
+    /**
+     * Entrena un diccionario nuevo con los payloads dados y lo convierte en el actual (para todos los servidores).
+     * Los payloads más repetidos (por bytes totales) van al final, donde deflate los referencia más barato.
+     */
+    public static synchronized TrainingResult train(List<byte[]> samples) throws Exception {
+        if (samples.size() < MIN_TRAINING_SAMPLES) {
+            throw new IllegalStateException("Not enough items to train (" + samples.size() + ", need " + MIN_TRAINING_SAMPLES + ")");
+        }
+
+        Map<ByteBuffer, Integer> frequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            frequency.merge(ByteBuffer.wrap(sample), 1, Integer::sum);
+        }
+        List<Map.Entry<ByteBuffer, Integer>> ranked = new ArrayList<>(frequency.entrySet());
+        ranked.sort(Comparator.comparingLong((Map.Entry<ByteBuffer, Integer> entry) ->
+                (long) entry.getKey().remaining() * entry.getValue()).reversed());
+
+        List<byte[]> chosen = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<ByteBuffer, Integer> entry : ranked) {
+            byte[] payload = entry.getKey().array();
+            if (size + payload.length > MAX_DICTIONARY_SIZE) {
+                continue;
+            }
+            chosen.add(payload);
+            size += payload.length;
+        }
+        Collections.reverse(chosen);
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (byte[] payload : chosen) {
+            dictionary.write(payload);
+        }
+        byte[] trained = dictionary.toByteArray();
+
+        // Medir con las mismas muestras: sin diccionario frente al nuevo
+        long raw = 0, plain = 0, withDictionary = 0;
+        for (byte[] sample : samples) {
+            raw += sample.length;
+            plain += Math.min(sample.length, deflate(sample, null).length);
+            withDictionary += Math.min(sample.length, deflate(sample, trained).length);
+        }
+
+        reloadDictionaries(); // Por si otro servidor entrenó mientras tanto
+        int id = dictionaries.keySet().stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+
+        Document stored = new Document();
+        for (Map.Entry<Integer, byte[]> entry : dictionaries.entrySet()) {
+            stored.put(String.valueOf(entry.getKey()), new Binary(entry.getValue()));
+        }
+        stored.put(String.valueOf(id), new Binary(trained));
+        storage.saveMeta(META_KEY, new Document("current", id).append("dictionaries", stored)
+                .append("trainedAt", System.currentTimeMillis()));
+
+        dictionaries.put(id, trained);
+        currentDictionary = id;
+
+        TrainingResult result = new TrainingResult(id, trained.length, samples.size(), raw, plain, withDictionary);
+        BackpacksMod.LOGGER.info("Item compression: trained dictionary " + id + " (" + trained.length + " bytes from " +
+                samples.size() + " items), ratio " + String.format("%.2f", result.ratio()) + " vs " +
+                String.format("%.2f", result.plainRatio()) + " without dictionary");
+        return result;
+    }
+
+    public record TrainingResult(int dictionaryId, int dictionarySize, int samples, long rawBytes,
+                                 long plainBytes, long dictionaryBytes) {
+        public double ratio() {
+            return dictionaryBytes > 0 ? (double) rawBytes / dictionaryBytes : 1.0;
+        }
+
+        public double plainRatio() {
+            return plainBytes > 0 ? (double) rawBytes / plainBytes : 1.0;
+        }
+    }
+
+    public static String getStats() {
+        long raw = rawBytes.get();
+        long stored = storedBytes.get();
+        return String.format("%s, dictionary %d (%d known), %d/%d payloads compressed, %d -> %d bytes (ratio %.2f), %d inflated",
+                isEnabled() ? "enabled" : "disabled", currentDictionary, dictionaries.size(),
+                payloadsCompressed.get(), payloadsWritten.get(), raw, stored,
+                stored > 0 ? (double) raw / stored : 1.0, payloadsInflated.get());
+    }
+}
@@ -106,6 +106,8 @@ public class LanguageManager {
         data.messages.put("errorPlayerOnly", "§cSolo los jugadores pueden usar este comando");
         data.messages.put("errorRenamingBackpack", "§cError renombrando mochila");
         data.messages.put("errorChangingIcon", "§cError cambiando icono de mochila");
+        data.messages.put("storageUnavailable", "§cAlmacenamiento de mochilas no disponible. Tus mochilas están a salvo, inténtalo en unos minutos.");
+        data.messages.put("storageRecovered", "§aAlmacenamiento de mochilas disponible de nuevo");
 
         // ========== PERMISOS ==========
         data.messages.put("errorNoPermission", "§cNo tienes permisos para usar este comando");
@@ -0,0 +1,380 @@
+// NUEVO: LocalBackpackStorage.java - Backend local en un solo fichero (log append-only)
+package es.minemon.backpacks;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Almacenamiento local para servidores únicos: cada escritura añade el documento completo del jugador
+ * al final del fichero y un índice en memoria apunta a la última copia de cada uno.
+ *
+ * Registro: [longitud int][crc32 int][documento BSON]. Un registro incompleto al final (caída a mitad de
+ * escritura) se descarta al abrir. El fichero se compacta cuando la mayor parte son copias antiguas.
+ */
+public class LocalBackpackStorage implements BackpackStorage {
+    private static final int HEADER_SIZE = 8;
+    private static final long MIN_COMPACT_SIZE = 4L * 1024 * 1024; // 4 MB
+    private static final DocumentCodec CODEC = new DocumentCodec();
+
+    private final Path file;
+    private FileChannel channel;
+    private final Map<String, Entry> index = new HashMap<>();
+    private long fileEnd = 0;
+    private long liveBytes = 0;
+
+    private record Entry(long offset, int length, long version) {
+        long recordSize() {
+            return HEADER_SIZE + (long) length;
+        }
+    }
+
+    public LocalBackpackStorage(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        open();
+        BackpacksMod.LOGGER.info("Local backpack storage opened: " + file + " (" + index.size() + " players)");
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        liveBytes = 0;
+
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + HEADER_SIZE);
+            if (checksum(body.array()) != crc) {
+                break;
+            }
+
+            Document doc = decode(body.array());
+            indexRecord(doc, position, length);
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < size) {
+            BackpacksMod.LOGGER.warn("Local storage: discarding " + (size - position) + " bytes of incomplete records at the end of " + file);
+            channel.truncate(position);
+        }
+        fileEnd = position;
+    }
+
+    private void indexRecord(Document doc, long offset, int length) {
+        String id = doc.getString("_id");
+        if (id == null) return;
+
+        Entry previous = index.remove(id);
+        if (previous != null) {
+            liveBytes -= previous.recordSize();
+        }
+        if (doc.getBoolean("_deleted", false)) {
+            return;
+        }
+
+        Entry entry = new Entry(offset, length, doc.get("version") instanceof Number number ? number.longValue() : 0);
+        index.put(id, entry);
+        liveBytes += entry.recordSize();
+    }
+
+    @Override
+    public synchronized Document load(UUID playerId) throws IOException {
+        Entry entry = index.get(playerId.toString());
+        return entry != null ? read(entry) : null;
+    }
+
+    @Override
+    public synchronized List<WriteResult> write(List<StorageWrite> writes) {
+        List<WriteResult> results = new ArrayList<>(writes.size());
+        List<Document> toAppend = new ArrayList<>(writes.size());
+
+        for (StorageWrite write : writes) {
+            try {
+                Document doc = applyWrite(write);
+                if (doc == null) {
+                    results.add(WriteResult.CONFLICT);
+                } else {
+                    toAppend.add(doc);
+                    results.add(WriteResult.OK);
+                }
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Local storage: error preparing save for " + write.playerId() + ": " + e.getMessage());
+                results.add(WriteResult.FAILED);
+            }
+        }
+
+        try {
+            append(toAppend);
+            compactIfNeeded();
+        } catch (IOException e) {
+            BackpacksMod.LOGGER.error("Local storage: error writing " + toAppend.size() + " players: " + e.getMessage());
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == WriteResult.OK) {
+                    results.set(i, WriteResult.FAILED);
+                }
+            }
+        }
+        return results;
+    }
+
+    // Documento resultante de la escritura, o null si la versión no coincide
+    private Document applyWrite(StorageWrite write) throws IOException {
+        String id = write.playerId().toString();
+        Entry entry = index.get(id);
+        long stored = entry != null ? entry.version() : 0;
+        if (stored != write.expectedVersion()) {
+            return null;
+        }
+
+        Document doc;
+        if (write.isReplacement()) {
+            doc = new Document(write.replacement());
+        } else {
+            doc = entry != null ? read(entry) : new Document();
+            if (doc.get("backpacks") instanceof List) {
+                return null; // Formato antiguo: requiere reescritura completa
+            }
+            applyUpdate(doc, write.update());
+        }
+
+        doc.put("_id", id);
+        doc.put("version", write.expectedVersion() + 1);
+        return doc;
+    }
+
+    // $set / $unset con rutas separadas por puntos, como en MongoDB
+    private static void applyUpdate(Document doc, Document update) {
+        Document set = update.get("$set", Document.class);
+        if (set != null) {
+            for (Map.Entry<String, Object> field : set.entrySet()) {
+                String[] path = field.getKey().split("\\.");
+                Document parent = resolveParent(doc, path, true);
+                if (parent != null) {
+                    parent.put(path[path.length - 1], field.getValue());
+                }
+            }
+        }
+
+        Document unset = update.get("$unset", Document.class);
+        if (unset != null) {
+            for (String key : unset.keySet()) {
+                String[] path = key.split("\\.");
+                Document parent = resolveParent(doc, path, false);
+                if (parent != null) {
+                    parent.remove(path[path.length - 1]);
+                }
+            }
+        }
+    }
+
+    private static Document resolveParent(Document doc, String[] path, boolean create) {
+        Document current = doc;
+        for (int i = 0; i < path.length - 1; i++) {
+            Object next = current.get(path[i]);
+            if (next instanceof Document child) {
+                current = child;
+            } else if (next == null && create) {
+                Document child = new Document();
+                current.put(path[i], child);
+                current = child;
+            } else {
+                return null;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public synchronized void delete(UUID playerId) throws IOException {
+        String id = playerId.toString();
+        if (index.containsKey(id)) {
+            append(List.of(new Document("_id", id).append("_deleted", true)));
+        }
+    }
+
+    // Cada documento auxiliar en su propio fichero junto al de datos (<fichero>.<clave>.meta)
+    @Override
+    public Document loadMeta(String key) throws IOException {
+        Path metaFile = metaFile(key);
+        if (!Files.exists(metaFile)) {
+            return null;
+        }
+        return decode(Files.readAllBytes(metaFile));
+    }
+
+    @Override
+    public void saveMeta(String key, Document value) throws IOException {
+        Path metaFile = metaFile(key);
+        Path temp = metaFile.resolveSibling(metaFile.getFileName() + ".tmp");
+        Files.write(temp, encode(value));
+        Files.move(temp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path metaFile(String key) {
+        return file.resolveSibling(file.getFileName() + "." + key + ".meta");
+    }
+
+    @Override
+    public void forEach(Consumer<Document> consumer) throws IOException {
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(index.keySet());
+        }
+        for (String id : ids) {
+            Document doc;
+            synchronized (this) {
+                Entry entry = index.get(id);
+                doc = entry != null ? read(entry) : null;
+            }
+            if (doc != null) {
+                consumer.accept(doc);
+            }
+        }
+    }
+
+    private void append(List<Document> docs) throws IOException {
+        if (docs.isEmpty()) return;
+
+        List<byte[]> encoded = new ArrayList<>(docs.size());
+        int total = 0;
+        for (Document doc : docs) {
+            byte[] bytes = encode(doc);
+            encoded.add(bytes);
+            total += HEADER_SIZE + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length);
+            buffer.putInt(checksum(bytes));
+            buffer.put(bytes);
+        }
+        buffer.flip();
+
+        long position = fileEnd;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+
+        long offset = fileEnd;
+        for (int i = 0; i < docs.size(); i++) {
+            indexRecord(docs.get(i), offset, encoded.get(i).length);
+            offset += HEADER_SIZE + encoded.get(i).length;
+        }
+        fileEnd = offset;
+    }
+
+    // Reescribe solo las copias vigentes cuando más de la mitad del fichero son copias antiguas
+    private void compactIfNeeded() throws IOException {
+        if (fileEnd < MIN_COMPACT_SIZE || liveBytes * 2 > fileEnd) {
+            return;
+        }
+
+        long before = fileEnd;
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Entry> entries = new ArrayList<>(index.values());
+            entries.sort(Comparator.comparingLong(Entry::offset));
+            long position = 0;
+            for (Entry entry : entries) {
+                ByteBuffer record = ByteBuffer.allocate((int) entry.recordSize());
+                readFully(record, entry.offset());
+                record.flip();
+                while (record.hasRemaining()) {
+                    position += out.write(record, position);
+                }
+            }
+            out.force(true);
+        }
+
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        BackpacksMod.LOGGER.info("Local storage compacted: " + before / 1024 + "KB -> " + fileEnd / 1024 + "KB");
+    }
+
+    private Document read(Entry entry) throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(entry.length());
+        readFully(body, entry.offset() + HEADER_SIZE);
+        return decode(body.array());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of local storage file");
+            }
+        }
+    }
+
+    private static byte[] encode(Document doc) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            CODEC.encode(writer, doc, EncoderContext.builder().build());
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Document decode(byte[] bytes) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(bytes))) {
+            return CODEC.decode(reader, DecoderContext.builder().build());
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public String getName() {
+        return "Local file";
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            compactIfNeeded();
+        } catch (IOException e) {
+            BackpacksMod.LOGGER.warn("Local storage: compaction on close failed: " + e.getMessage());
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            BackpacksMod.LOGGER.error("Error closing local storage", e);
+        }
+    }
+}
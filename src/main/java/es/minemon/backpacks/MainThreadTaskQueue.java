@@ -0,0 +1,98 @@
+// NUEVO: MainThreadTaskQueue.java - Cola de tareas del mod en el hilo del servidor con presupuesto por tick
+package es.minemon.backpacks;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tareas que el mod necesita ejecutar en el hilo del servidor. En lugar de server.execute (todas en el
+ * mismo tick), se vacía desde END_SERVER_TICK hasta agotar mainThreadBudgetMs; lo que no cabe pasa al
+ * siguiente tick. Si un tick se pasa del presupuesto, el exceso se descuenta del siguiente.
+ */
+public class MainThreadTaskQueue {
+    // Deuda máxima arrastrada: nunca más de un tick de presupuesto
+    private static final int MAX_DEBT_TICKS = 1;
+
+    private static final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pending = new AtomicInteger(0);
+
+    // Solo se usan desde el hilo del servidor
+    private static long debtNanos = 0;
+    private static int maxBacklog = 0;
+
+    private static final AtomicLong executed = new AtomicLong(0);
+    private static final AtomicLong carriedTicks = new AtomicLong(0);
+    private static final AtomicLong overBudgetTicks = new AtomicLong(0);
+
+    /**
+     * Encola una tarea para el hilo del servidor (se puede llamar desde cualquier hilo)
+     */
+    public static void post(Runnable task) {
+        tasks.add(task);
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Ejecuta tareas hasta agotar el presupuesto del tick. Siempre ejecuta al menos una para avanzar.
+     */
+    public static void drain() {
+        if (pending.get() == 0) {
+            return;
+        }
+
+        BackpackConfig config = ConfigManager.getConfig();
+        long budgetNanos = (config != null ? config.mainThreadBudgetMs : 5) * 1_000_000L;
+        long available = budgetNanos - debtNanos;
+        long start = System.nanoTime();
+        maxBacklog = Math.max(maxBacklog, pending.get());
+
+        int ran = 0;
+        Runnable task;
+        while ((ran == 0 || System.nanoTime() - start < available) && (task = tasks.poll()) != null) {
+            pending.decrementAndGet();
+            ran++;
+            try {
+                task.run();
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Error in main thread task", e);
+            }
+        }
+        executed.addAndGet(ran);
+
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > available) {
+            overBudgetTicks.incrementAndGet();
+        }
+        debtNanos = Math.min(Math.max(0, elapsed - available), budgetNanos * MAX_DEBT_TICKS);
+
+        if (pending.get() > 0) {
+            carriedTicks.incrementAndGet();
+        }
+    }
+
+    public static int getPendingCount() {
+        return pending.get();
+    }
+
+    /**
+     * Ejecuta todo lo pendiente sin presupuesto (cierre del servidor)
+     */
+    public static void drainAll() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Error in main thread task", e);
+            }
+        }
+        debtNanos = 0;
+    }
+
+    public static String getStats() {
+        return String.format("%d pending, %d executed, %d ticks carried over, %d over budget, max backlog %d",
+                pending.get(), executed.get(), carriedTicks.get(), overBudgetTicks.get(), maxBacklog);
+    }
+}
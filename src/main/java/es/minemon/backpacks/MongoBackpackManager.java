@@ -1,393 +1,1359 @@
 // OPTIMIZADO: MongoBackpackManager.java con timeouts más flexibles
 package es.minemon.backpacks;
 
-import com.mongodb.client.*;
+import com.mongodb.ConnectionString;
 import net.minecraft.nbt.NbtOps;
 import com.mojang.serialization.DataResult;
-import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.ReplaceOptions;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtSizeTracker;
 import net.minecraft.nbt.StringNbtReader;
+import net.minecraft.registry.Registries;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.collection.DefaultedList;
 import org.bson.Document;
-import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
 
 public class MongoBackpackManager {
-    private MongoClient mongoClient;
-    private MongoDatabase database;
-    private MongoCollection<Document> collection;
+    // Backend de persistencia (MongoDB o fichero local); este manager gestiona cache y escrituras
+    private final BackpackStorage storage;
 
     // Cache thread-safe mejorado
     private final ConcurrentHashMap<UUID, PlayerBackpacks> localCache = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<UUID, Boolean> pendingWrites = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<UUID, Long> lastSyncTime = new ConcurrentHashMap<>();
 
-    // Control de operaciones concurrentes más permisivo
-    private final Semaphore mongoOperationsSemaphore = new Semaphore(20); // Aumentado a 20
-    private final AtomicInteger activeOperations = new AtomicInteger(0);
+    // Write-behind: jugadores pendientes de guardar (un Set para coalescer cambios repetidos)
+    private final Set<UUID> writeBehindQueue = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushInProgress = new AtomicBoolean(false);
+    private final AtomicLong versionConflicts = new AtomicLong(0);
+
+    // Cambios escritos por otros servidores (change streams o polling por lastUpdated)
+    private final AtomicLong remoteUpdates = new AtomicLong(0);
+
+    // Jugadores conectados: su entrada de cache no caduca por tiempo
+    private final Set<UUID> pinnedPlayers = ConcurrentHashMap.newKeySet();
+
+    // LRU (orden de acceso) con el peso en stacks de cada jugador desconectado en cache
+    private final LinkedHashMap<UUID, Integer> offlineLru = new LinkedHashMap<>(64, 0.75f, true);
+    private long offlineWeight = 0;
+    private final AtomicLong cacheHits = new AtomicLong(0);
+    private final AtomicLong cacheMisses = new AtomicLong(0);
+    private final AtomicLong cacheEvictions = new AtomicLong(0);
+
+    // Lecturas ligeras (solo el índice summary) y las que tuvieron que cargar el documento completo
+    private final AtomicLong summaryReads = new AtomicLong(0);
+    private final AtomicLong summaryFallbacks = new AtomicLong(0);
+
+    // Mochilas decodificadas al abrirlas y devueltas a la forma codificada al cerrarlas
+    private static final AtomicLong inventoriesDecoded = new AtomicLong(0);
+    private static final AtomicLong inventoriesReleased = new AtomicLong(0);
+
+    // Cargas en curso, compartidas entre llamadas concurrentes para el mismo jugador
+    private final ConcurrentHashMap<UUID, CompletableFuture<PlayerBackpacks>> loadsInFlight = new ConcurrentHashMap<>();
+
+    // Carga de sesión iniciada en el login: se completa cuando los datos del jugador están en cache
+    private final ConcurrentHashMap<UUID, CompletableFuture<PlayerBackpacks>> sessionReady = new ConcurrentHashMap<>();
+
+    // Modo hilos virtuales: un hilo virtual por operación, limitado solo por el pool de conexiones de MongoDB
+    private final boolean virtualThreads = ConfigManager.getConfig().useVirtualThreads;
+
+    // Control de operaciones concurrentes más permisivo (20); con hilos virtuales, el pool de MongoDB y sin timeout
+    private final StorageOperationGate mongoOperations = new StorageOperationGate(
+            virtualThreads ? mongoPoolSize() : 20, virtualThreads);
     private final AtomicBoolean isShuttingDown = new AtomicBoolean(false);
 
-    // Executor con más capacidad
-    private final ExecutorService mongoExecutor = new ThreadPoolExecutor(
-            4, // Más core threads
-            12, // Más max threads
-            60L, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(200), // Cola más grande
-            r -> {
-                Thread t = new Thread(r, "Mongo-Worker-" + System.nanoTime());
-                t.setDaemon(true);
-                t.setUncaughtExceptionHandler((thread, ex) -> {
-                    BackpacksMod.LOGGER.error("Uncaught exception in mongo thread: " + thread.getName(), ex);
-                });
-                return t;
-            },
-            new ThreadPoolExecutor.CallerRunsPolicy()
-    );
+    // NUEVO: Dos carriles del BackpackScheduler con colas acotadas. Las cargas tienen hilos propios y nunca
+    // esperan detrás de los guardados; si una cola se llena se rechaza la tarea (nunca I/O en el hilo que llama)
+    private final Executor loadExecutor = BackpackScheduler.executor(BackpackScheduler.Lane.IO_LOAD);
+    private final Executor saveExecutor = BackpackScheduler.executor(BackpackScheduler.Lane.IO_SAVE);
+
+    // Guardados encolados y aún no empezados, uno por jugador: las peticiones repetidas comparten el mismo
+    private final ConcurrentHashMap<UUID, CompletableFuture<Void>> queuedSaves = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedSaves = new AtomicLong(0);
+
+    // NUEVO: Write-ahead log local; se abre al arrancar el servidor (hace falta el registro de items)
+    private volatile BackpackWriteAheadLog writeAheadLog;
+    private final Set<UUID> journalPending = ConcurrentHashMap.newKeySet();
+    // Jugadores con cambios del log aún sin reaplicar (almacenamiento caído al arrancar): no se escriben hasta entonces
+    private final ConcurrentHashMap<UUID, Map<Integer, Document>> pendingRecovery = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> walSyncTask;
+    private static final int WAL_MAX_SEALED_SEGMENTS = 4;
+
+    // NUEVO: Modo degradado - el almacenamiento no responde. Las cargas fallidas quedan bloqueadas (solo lectura)
+    // y los guardados se quedan en cache y en el write-ahead log hasta que vuelva
+    private final AtomicBoolean degraded = new AtomicBoolean(false);
+    private final AtomicBoolean probeInFlight = new AtomicBoolean(false);
+    private volatile long degradedSince = 0;
+    private volatile long nextProbeAt = 0;
+    private volatile long probeBackoffMs = PROBE_MIN_BACKOFF_MS;
+    private final AtomicLong degradedEpisodes = new AtomicLong(0);
+    private static final long PROBE_MIN_BACKOFF_MS = 2000;
+    private static final long PROBE_MAX_BACKOFF_MS = 60000;
 
     // Timeouts más permisivos para evitar fallos
     private static final long CACHE_TIMEOUT = 120000; // 2 minutos (aumentado)
     private static final long OPERATION_TIMEOUT = 30000; // 30 segundos (aumentado)
     private static final int MAX_CACHE_SIZE = 1000; // Aumentado
+    private static final int COMPRESSION_TRAINING_SAMPLES = 20000;
 
     public MongoBackpackManager() {
         try {
             BackpackConfig config = ConfigManager.getConfig();
 
-            mongoClient = MongoClients.create(config.mongoConnectionString);
-            database = mongoClient.getDatabase(config.databaseName);
-            collection = database.getCollection(config.collectionName);
+            storage = createStorage(config);
+            ItemPayloadCompression.initialize(storage);
+
+            if (config.crossServerSync) {
+                storage.watchRemoteChanges(config.serverId, config.crossServerPollSeconds * 1000L, this::onRemoteChange);
+            }
+
+            BackpacksMod.LOGGER.info("Almacenamiento de mochilas: " + storage.getName());
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error inicializando el almacenamiento de mochilas", e);
+            throw new RuntimeException("No se pudo inicializar el almacenamiento de mochilas", e);
+        }
+    }
+
+    private static BackpackStorage createStorage(BackpackConfig config) throws Exception {
+        if ("local".equals(config.storageBackend)) {
+            Path file = ConfigManager.getConfigDirectory().resolve(config.localStorageFile);
+            return new LocalBackpackStorage(file);
+        }
+        if ("backpack".equals(config.mongoDocumentLayout)) {
+            return new MongoSplitBackpackStorage(config);
+        }
+        return new MongoBackpackStorage(config);
+    }
+
+    public BackpackStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Entrena un diccionario de compresión con los items de los jugadores en cache (no lee el almacenamiento)
+     */
+    public CompletableFuture<ItemPayloadCompression.TrainingResult> trainCompressionDictionary() {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                List<byte[]> samples = new ArrayList<>();
+                for (PlayerBackpacks backpacks : localCache.values()) {
+                    if (backpacks.isLocked()) continue;
+                    for (BackpackData backpack : backpacks.getAllBackpacks().values()) {
+                        backpack.collectPayloads(samples, COMPRESSION_TRAINING_SAMPLES);
+                    }
+                    if (samples.size() >= COMPRESSION_TRAINING_SAMPLES) break;
+                }
+                try {
+                    return ItemPayloadCompression.train(samples);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            // Índices básicos
-            collection.createIndex(new Document("_id", 1));
+    /**
+     * Pasa todos los documentos al formato configurado (mongoDocumentLayout). Solo MongoDB.
+     */
+    public CompletableFuture<MongoBackpackStorage.LayoutMigrationResult> migrateStorageLayout() {
+        if (!(storage instanceof MongoBackpackStorage mongoStorage)) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Layout migration requires the MongoDB backend"));
+        }
+        if (degraded.get()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Storage unavailable"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(mongoStorage::migrateLayout,
+                    BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-            BackpacksMod.LOGGER.info("MongoDB conectado con timeouts optimizados");
+    private static int mongoPoolSize() {
+        try {
+            Integer size = new ConnectionString(ConfigManager.getConfig().mongoConnectionString).getMaxConnectionPoolSize();
+            return size != null && size > 0 ? size : 100; // 100 = tamaño por defecto del driver
         } catch (Exception e) {
-            BackpacksMod.LOGGER.error("Error conectando a MongoDB", e);
-            throw new RuntimeException("No se pudo conectar a MongoDB", e);
+            return 100;
         }
     }
 
     // CORREGIDO: Operaciones con timeouts más permisivos y mejor fallback
     public CompletableFuture<PlayerBackpacks> loadPlayerBackpacks(UUID playerId) {
         if (isShuttingDown.get()) {
-            return CompletableFuture.completedFuture(getCachedOrEmpty(playerId));
+            return CompletableFuture.completedFuture(getCachedOrLocked(playerId));
+        }
+
+        try {
+            return CompletableFuture.supplyAsync(() -> loadFromStorage(playerId), loadExecutor)
+                    .orTimeout(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS)
+                    .exceptionally(throwable -> {
+                        BackpacksMod.LOGGER.warn("MongoDB load timeout for " + playerId + ", using cache: " + throwable.getMessage());
+                        return getCachedOrLocked(playerId);
+                    });
+        } catch (RejectedExecutionException e) {
+            // Cola de cargas llena: servir lo que haya en cache en vez de hacer la I/O en este hilo
+            BackpacksMod.LOGGER.warn("Load queue full, using cache for player: " + playerId);
+            return CompletableFuture.completedFuture(getCachedOrLocked(playerId));
         }
+    }
+
+    private PlayerBackpacks loadFromStorage(UUID playerId) {
+        // Intentar obtener permiso, pero si no se puede, usar cache
+        // CORREGIDO: Con hilos virtuales se espera al pool de conexiones; nunca se cae a la copia bloqueada
+        boolean acquired = false;
+        try {
+            acquired = mongoOperations.enter(5, TimeUnit.SECONDS);
+            if (!acquired) {
+                BackpacksMod.LOGGER.warn("MongoDB busy, using cache for player: " + playerId);
+                return getCachedOrLocked(playerId);
+            }
+
+            // Verificar cache válido primero
+            PlayerBackpacks cached = localCache.get(playerId);
+
+            // Un cache con cambios sin guardar nunca se sustituye por lo que hay en MongoDB
+            if (cached != null && (cached.isDirty() || !isStale(playerId))) {
+                return cached;
+            }
 
-        return CompletableFuture.supplyAsync(() -> {
-            // Intentar obtener semáforo, pero si no se puede, usar cache
-            boolean acquired = false;
+            // Modo degradado: no insistir contra un almacenamiento caído
+            if (degraded.get()) {
+                return getCachedOrLocked(playerId);
+            }
+
+            Document doc;
             try {
-                acquired = mongoOperationsSemaphore.tryAcquire(5, TimeUnit.SECONDS);
-                if (!acquired) {
-                    BackpacksMod.LOGGER.warn("MongoDB busy, using cache for player: " + playerId);
-                    return getCachedOrEmpty(playerId);
-                }
+                doc = storage.load(playerId);
+            } catch (Exception e) {
+                enterDegradedMode("load failed: " + e.getMessage());
+                throw e;
+            }
+            PlayerBackpacks result = new PlayerBackpacks();
+            if (doc != null) {
+                result.fromDocument(doc);
+            }
 
-                activeOperations.incrementAndGet();
+            // Si durante la carga hubo cambios locales, mantener la copia local
+            PlayerBackpacks current = localCache.get(playerId);
+            if (current != null && current.isDirty()) {
+                return current;
+            }
 
-                // Verificar cache válido primero
-                PlayerBackpacks cached = localCache.get(playerId);
-                Long lastSync = lastSyncTime.get(playerId);
+            updateCache(playerId, result);
+            return result;
 
-                if (cached != null && lastSync != null &&
-                        (System.currentTimeMillis() - lastSync) < CACHE_TIMEOUT &&
-                        !cached.isDirty()) {
-                    return cached;
-                }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            BackpacksMod.LOGGER.warn("Interrupted while waiting for MongoDB semaphore");
+            return getCachedOrLocked(playerId);
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.warn("Error loading from MongoDB for " + playerId + ": " + e.getMessage());
+            return getCachedOrLocked(playerId);
+        } finally {
+            if (acquired) {
+                mongoOperations.exit();
+            }
+        }
+    }
 
-                // Cargar desde MongoDB con timeout más permisivo
-                CompletableFuture<PlayerBackpacks> loadTask = CompletableFuture.supplyAsync(() -> {
-                    try {
-                        Bson filter = Filters.eq("_id", playerId.toString());
-                        Document doc = collection.find(filter).first();
+    /**
+     * Resumen de las mochilas del jugador (nombre, icono, ocupación) sin decodificar items.
+     * Si está en cache se calcula de memoria; si no, se lee solo el índice summary del documento y,
+     * si el documento no lo tiene al día, se carga completo (y queda en cache).
+     */
+    public CompletableFuture<Map<Integer, BackpackSummary>> getBackpackSummariesAsync(UUID playerId) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        if (cached != null || isShuttingDown.get() || degraded.get()) {
+            return CompletableFuture.completedFuture(cached != null ? cached.getSummaries() : Map.of());
+        }
 
-                        PlayerBackpacks backpacks = new PlayerBackpacks();
-                        if (doc != null) {
-                            backpacks.fromDocument(doc);
-                        }
-                        return backpacks;
-                    } catch (Exception e) {
-                        BackpacksMod.LOGGER.warn("Error loading from MongoDB for " + playerId + ": " + e.getMessage());
-                        throw e;
-                    }
-                }, mongoExecutor);
+        try {
+            return CompletableFuture.supplyAsync(() -> loadSummaries(playerId), loadExecutor)
+                    .orTimeout(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                try {
-                    PlayerBackpacks result = loadTask.get(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
-                    updateCache(playerId, result);
-                    return result;
-                } catch (TimeoutException e) {
-                    BackpacksMod.LOGGER.warn("MongoDB load timeout for " + playerId + ", using cache");
-                    return getCachedOrEmpty(playerId);
-                } catch (Exception e) {
-                    BackpacksMod.LOGGER.warn("Error loading from MongoDB for " + playerId + ": " + e.getMessage());
-                    return getCachedOrEmpty(playerId);
-                }
+    public Map<Integer, BackpackSummary> getBackpackSummaries(UUID playerId) {
+        try {
+            return getBackpackSummariesAsync(playerId).get(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.warn("Error loading backpack summaries for " + playerId + ": " + e.getMessage());
+            PlayerBackpacks cached = localCache.get(playerId);
+            return cached != null ? cached.getSummaries() : Map.of();
+        }
+    }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                BackpacksMod.LOGGER.warn("Interrupted while waiting for MongoDB semaphore");
-                return getCachedOrEmpty(playerId);
-            } finally {
-                if (acquired) {
-                    activeOperations.decrementAndGet();
-                    mongoOperationsSemaphore.release();
-                }
+    private Map<Integer, BackpackSummary> loadSummaries(UUID playerId) {
+        try {
+            Document doc = storage.loadSummary(playerId);
+            if (doc == null) {
+                summaryReads.incrementAndGet();
+                return Map.of();
             }
-        }, mongoExecutor);
+            Map<Integer, BackpackSummary> summaries = BackpackSummary.fromPlayerDocument(doc);
+            if (summaries != null) {
+                summaryReads.incrementAndGet();
+                return summaries;
+            }
+        } catch (Exception e) {
+            enterDegradedMode("summary read failed: " + e.getMessage());
+            throw new CompletionException(e);
+        }
+
+        // Documento sin índice (versión anterior): carga completa, que se reescribirá con el índice
+        summaryFallbacks.incrementAndGet();
+        return loadFromStorage(playerId).getSummaries();
     }
 
-    // CORREGIDO: Guardado más tolerante a fallos
+    // CORREGIDO: Guardado más tolerante a fallos (misma ruta que el write-behind, lote de uno)
     public CompletableFuture<Void> savePlayerBackpacks(UUID playerId, PlayerBackpacks backpacks) {
         if (isShuttingDown.get()) {
             return CompletableFuture.completedFuture(null);
         }
+        journalPending.add(playerId);
 
-        return CompletableFuture.runAsync(() -> {
-            boolean acquired = false;
-            try {
-                acquired = mongoOperationsSemaphore.tryAcquire(10, TimeUnit.SECONDS);
-                if (!acquired) {
-                    BackpacksMod.LOGGER.warn("MongoDB busy, skipping save for: " + playerId);
-                    return;
+        // Modo degradado: los cambios quedan en cache (y en el log) hasta que vuelva el almacenamiento
+        if (degraded.get()) {
+            backpacks.markDirty();
+            writeBehindQueue.add(playerId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Si ya hay un guardado en cola para el jugador, recogerá también estos cambios
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> existing = queuedSaves.putIfAbsent(playerId, created);
+        if (existing != null) {
+            coalescedSaves.incrementAndGet();
+            return existing;
+        }
+
+        try {
+            saveExecutor.execute(() -> {
+                // Desde aquí los cambios nuevos necesitan otro guardado
+                queuedSaves.remove(playerId, created);
+                try {
+                    QueuedWrite write = prepareWrite(playerId, backpacks);
+                    if (write != null) {
+                        executeBatch(List.of(write));
+                    }
+                    created.complete(null);
+                } catch (Exception e) {
+                    created.completeExceptionally(e);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // Cola de guardados llena: los cambios se quedan dirty en cache y los recoge el write-behind
+            queuedSaves.remove(playerId, created);
+            backpacks.markDirty();
+            writeBehindQueue.add(playerId);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
 
-                pendingWrites.put(playerId, true);
-                activeOperations.incrementAndGet();
+    // Reserva la escritura del jugador y extrae sus cambios; null si no hay nada que escribir ahora
+    private QueuedWrite prepareWrite(UUID playerId, PlayerBackpacks backpacks) {
+        // Sin escribir (ni confirmar el log) hasta reaplicar los cambios recuperados del jugador
+        if (pendingRecovery.containsKey(playerId) || backpacks.isLocked()) {
+            return null;
+        }
 
-                CompletableFuture<Void> saveTask = CompletableFuture.runAsync(() -> {
-                    try {
-                        Document doc = backpacks.toDocument();
-                        doc.put("_id", playerId.toString());
+        // Una sola escritura en vuelo por jugador para que la versión esperada sea siempre la correcta
+        if (!backpacks.tryBeginWrite()) {
+            if (backpacks.isDirty()) {
+                writeBehindQueue.add(playerId);
+            }
+            return null;
+        }
 
-                        Bson filter = Filters.eq("_id", playerId.toString());
-                        ReplaceOptions options = new ReplaceOptions().upsert(true);
+        // Lo anotado en el log hasta ahora queda cubierto por esta escritura
+        long journalSeq = backpacks.getJournalSeq();
+
+        // Solo se escribe lo que ha cambiado desde el último guardado
+        PendingChanges changes = backpacks.drainChanges();
+        if (changes == null) {
+            backpacks.finishWrite(null, true);
+            backpacks.setLastSync(System.currentTimeMillis());
+            acknowledgeJournal(Map.of(playerId, journalSeq));
+            onSaveConfirmed(playerId, backpacks);
+            return null;
+        }
 
-                        collection.replaceOne(filter, doc, options);
-                    } catch (Exception e) {
-                        BackpacksMod.LOGGER.error("Error saving to MongoDB for " + playerId + ": " + e.getMessage());
-                        throw e;
-                    }
-                }, mongoExecutor);
+        try {
+            return new QueuedWrite(playerId, backpacks, changes, buildStorageWrite(playerId, backpacks, changes), journalSeq);
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error preparing save for " + playerId + ": " + e.getMessage());
+            backpacks.finishWrite(changes, false);
+            writeBehindQueue.add(playerId);
+            return null;
+        }
+    }
 
-                try {
-                    saveTask.get(OPERATION_TIMEOUT, TimeUnit.MILLISECONDS);
+    // Escritura de un jugador: reemplazo completo o update incremental, condicionada a la versión esperada
+    private BackpackStorage.StorageWrite buildStorageWrite(UUID playerId, PlayerBackpacks backpacks, PendingChanges changes) {
+        long expected = changes.getExpectedVersion();
+        if (changes.isFullWrite()) {
+            return new BackpackStorage.StorageWrite(playerId, expected, backpacks.toDocument(changes), null);
+        }
+        return new BackpackStorage.StorageWrite(playerId, expected, null, backpacks.toDeltaUpdate(changes));
+    }
 
-                    backpacks.markClean();
-                    backpacks.setLastSync(System.currentTimeMillis());
-                    updateCache(playerId, backpacks);
+    private record QueuedWrite(UUID playerId, PlayerBackpacks backpacks, PendingChanges changes,
+                               BackpackStorage.StorageWrite write, long journalSeq) {}
 
-                } catch (TimeoutException e) {
-                    BackpacksMod.LOGGER.error("MongoDB save timeout for " + playerId);
-                    // No marcar como clean si falló el guardado
-                } catch (Exception e) {
-                    BackpacksMod.LOGGER.error("Error saving to MongoDB for " + playerId + ": " + e.getMessage());
-                    // No marcar como clean si falló el guardado
-                }
+    // NUEVO: Write-behind - los jugadores modificados se acumulan y se escriben en lotes con bulkWrite
+    public void requestWriteBehindFlush() {
+        if (isShuttingDown.get() || degraded.get() || writeBehindQueue.isEmpty()) {
+            return;
+        }
+        if (!flushInProgress.compareAndSet(false, true)) {
+            return; // Ya hay un flush en curso, recogerá los nuevos jugadores en la próxima pasada
+        }
 
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                BackpacksMod.LOGGER.warn("Interrupted while waiting for save semaphore for " + playerId);
-            } finally {
-                pendingWrites.remove(playerId);
-                if (acquired) {
-                    activeOperations.decrementAndGet();
-                    mongoOperationsSemaphore.release();
+        try {
+            saveExecutor.execute(() -> {
+                try {
+                    flushPlayers(drainWriteBehindQueue());
+                } finally {
+                    flushInProgress.set(false);
                 }
-            }
-        }, mongoExecutor);
+            });
+        } catch (RejectedExecutionException e) {
+            flushInProgress.set(false);
+        }
     }
 
-    private PlayerBackpacks getCachedOrEmpty(UUID playerId) {
-        PlayerBackpacks cached = localCache.get(playerId);
-        if (cached == null) {
-            cached = new PlayerBackpacks();
-            updateCache(playerId, cached);
+    private Set<UUID> drainWriteBehindQueue() {
+        Set<UUID> players = new HashSet<>();
+        Iterator<UUID> iterator = writeBehindQueue.iterator();
+        while (iterator.hasNext()) {
+            players.add(iterator.next());
+            iterator.remove();
         }
-        return cached;
+        return players;
     }
 
-    // CORREGIDO: Guardado masivo con timeouts más permisivos
-    public void saveAllDirtyBackpacks() {
-        if (isShuttingDown.get()) {
-            return;
-        }
+    // Escribe todos los jugadores indicados en lotes de writeBehindBatchSize; devuelve cuántos se guardaron
+    private int flushPlayers(Collection<UUID> playerIds) {
+        int batchSize = ConfigManager.getConfig().writeBehindBatchSize;
+        List<QueuedWrite> batch = new ArrayList<>(Math.min(batchSize, playerIds.size()));
+        int saved = 0;
 
-        List<CompletableFuture<Void>> futures = new ArrayList<>();
-        int maxConcurrent = Math.min(10, localCache.size());
+        for (UUID playerId : playerIds) {
+            PlayerBackpacks backpacks = localCache.get(playerId);
+            if (backpacks == null) {
+                continue;
+            }
 
-        int processed = 0;
-        for (Map.Entry<UUID, PlayerBackpacks> entry : localCache.entrySet()) {
-            if (entry.getValue().isDirty() && processed < maxConcurrent) {
-                futures.add(savePlayerBackpacks(entry.getKey(), entry.getValue()));
-                processed++;
+            QueuedWrite write = prepareWrite(playerId, backpacks);
+            if (write == null) {
+                continue;
             }
-        }
 
-        if (!futures.isEmpty()) {
-            try {
-                // Timeout más permisivo
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                        .get(60, TimeUnit.SECONDS); // Aumentado a 60 segundos
-                BackpacksMod.LOGGER.info("Saved " + futures.size() + " dirty backpacks");
-            } catch (TimeoutException e) {
-                BackpacksMod.LOGGER.warn("Mass save timeout - some data may not be saved (normal during high load)");
-            } catch (Exception e) {
-                BackpacksMod.LOGGER.error("Error in mass save operation", e);
+            batch.add(write);
+            if (batch.size() >= batchSize) {
+                saved += executeBatch(batch);
+                batch.clear();
             }
         }
-    }
 
-    // Cache management mejorado
-    private void updateCache(UUID playerId, PlayerBackpacks backpacks) {
-        // Limpieza preventiva menos agresiva
-        if (localCache.size() >= MAX_CACHE_SIZE) {
-            cleanupCacheGracefully();
+        if (!batch.isEmpty()) {
+            saved += executeBatch(batch);
         }
-
-        localCache.put(playerId, backpacks);
-        lastSyncTime.put(playerId, System.currentTimeMillis());
+        return saved;
     }
 
-    // NUEVO: Limpieza de cache más suave
-    private void cleanupCacheGracefully() {
+    private int executeBatch(List<QueuedWrite> batch) {
+        boolean acquired = false;
+        Set<Integer> failed = new HashSet<>();
+        Set<Integer> conflicts = new HashSet<>();
+
         try {
-            long now = System.currentTimeMillis();
-            List<UUID> toRemove = new ArrayList<>();
+            acquired = mongoOperations.enter(10, TimeUnit.SECONDS);
+            if (!acquired) {
+                BackpacksMod.LOGGER.warn("MongoDB busy, deferring batch of " + batch.size() + " saves");
+                for (int i = 0; i < batch.size(); i++) failed.add(i);
+                return 0;
+            }
 
-            // Solo remover entradas muy antiguas
-            for (Map.Entry<UUID, Long> entry : lastSyncTime.entrySet()) {
-                UUID playerId = entry.getKey();
-                long lastSync = entry.getValue();
-                PlayerBackpacks backpacks = localCache.get(playerId);
+            for (QueuedWrite write : batch) {
+                pendingWrites.put(write.playerId(), true);
+            }
 
-                // Solo remover si es muy antiguo Y no está sucio
-                if ((now - lastSync) > (CACHE_TIMEOUT * 2) &&
-                        (backpacks == null || !backpacks.isDirty())) {
-                    toRemove.add(playerId);
+            List<BackpackStorage.StorageWrite> writes = new ArrayList<>(batch.size());
+            for (QueuedWrite write : batch) {
+                writes.add(write.write());
+            }
+
+            // El backend aplica el resto del lote aunque alguna escritura falle; solo se reintentan las fallidas
+            List<BackpackStorage.WriteResult> results = storage.write(writes);
+            for (int i = 0; i < batch.size(); i++) {
+                switch (results.get(i)) {
+                    case CONFLICT -> conflicts.add(i);
+                    case FAILED -> failed.add(i);
+                    default -> { }
+                }
+            }
+            if (!failed.isEmpty()) {
+                BackpacksMod.LOGGER.error("Bulk save: " + failed.size() + "/" + batch.size() + " writes failed");
+                if (failed.size() == batch.size()) {
+                    enterDegradedMode("bulk save of " + batch.size() + " players failed");
                 }
             }
 
-            // Limitar cuánto removemos de una vez
-            int maxToRemove = Math.min(toRemove.size(), MAX_CACHE_SIZE / 4);
-            for (int i = 0; i < maxToRemove; i++) {
-                UUID playerId = toRemove.get(i);
-                localCache.remove(playerId);
-                lastSyncTime.remove(playerId);
+            // Resolver conflictos: mezclar con la versión remota y reintentar en el próximo flush
+            for (Integer index : conflicts) {
+                resolveConflict(batch.get(index));
             }
 
-            if (maxToRemove > 0) {
-                BackpacksMod.LOGGER.debug("Cleaned " + maxToRemove + " entries from cache gracefully");
+            return batch.size() - failed.size() - conflicts.size();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = 0; i < batch.size(); i++) failed.add(i);
+            return 0;
+        } finally {
+            long now = System.currentTimeMillis();
+            Map<UUID, Long> confirmed = new HashMap<>();
+            for (int i = 0; i < batch.size(); i++) {
+                QueuedWrite write = batch.get(i);
+                pendingWrites.remove(write.playerId());
+                if (conflicts.contains(i)) {
+                    continue; // Ya gestionado por resolveConflict
+                }
+                if (failed.contains(i)) {
+                    // Devolver los cambios y reencolar para el próximo flush
+                    write.backpacks().finishWrite(write.changes(), false);
+                    writeBehindQueue.add(write.playerId());
+                } else {
+                    write.backpacks().finishWrite(write.changes(), true);
+                    write.backpacks().setLastSync(now);
+                    lastSyncTime.put(write.playerId(), now);
+                    confirmed.put(write.playerId(), write.journalSeq());
+                    onSaveConfirmed(write.playerId(), write.backpacks());
+                }
             }
+            acknowledgeJournal(confirmed);
+            if (acquired) {
+                mongoOperations.exit();
+            }
+        }
+    }
+
+    // NUEVO: Merge ante conflicto de versión - los cambios locales pendientes se aplican sobre el documento remoto
+    private void resolveConflict(QueuedWrite write) {
+        UUID playerId = write.playerId();
+        PlayerBackpacks backpacks = write.backpacks();
+        versionConflicts.incrementAndGet();
 
+        // La lectura en el hilo de IO; el merge toca inventarios vivos y va al hilo del servidor
+        Document doc = null;
+        try {
+            doc = storage.load(playerId);
         } catch (Exception e) {
-            BackpacksMod.LOGGER.error("Error in graceful cache cleanup", e);
+            BackpacksMod.LOGGER.warn("Error resolving version conflict for " + playerId + ": " + e.getMessage());
         }
+
+        Document remoteDoc = doc;
+        runOnServerThread(() -> {
+            try {
+                if (remoteDoc != null) {
+                    PlayerBackpacks remote = new PlayerBackpacks();
+                    remote.fromDocument(remoteDoc);
+                    backpacks.mergeRemote(remote, write.changes());
+                    BackpackSyncManager.notifyPlayerChanged(playerId);
+                    BackpacksMod.LOGGER.info("Version conflict for " + playerId + " (written by " +
+                            remoteDoc.getString("serverId") + "), merged with remote version " + remote.getVersion());
+                }
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.warn("Error resolving version conflict for " + playerId + ": " + e.getMessage());
+            } finally {
+                // La escritura sigue en vuelo hasta aquí: no se reintenta antes de tener el merge
+                backpacks.finishWrite(write.changes(), false);
+                writeBehindQueue.add(playerId);
+            }
+        });
     }
 
-    // CORREGIDO: Cierre más robusto
-    public void close() {
-        BackpacksMod.LOGGER.info("Iniciando cierre de MongoDB...");
-        isShuttingDown.set(true);
+    // Ejecuta en el hilo del servidor (cola con presupuesto por tick); sin servidor o cerrando, aquí mismo
+    private void runOnServerThread(Runnable task) {
+        if (BackpacksMod.getServer() == null || isShuttingDown.get()) {
+            task.run();
+        } else {
+            MainThreadTaskQueue.post(task);
+        }
+    }
 
-        try {
-            // Esperar operaciones activas con timeout más largo
-            long waitStart = System.currentTimeMillis();
-            while (activeOperations.get() > 0 &&
-                    (System.currentTimeMillis() - waitStart) < 15000) { // 15 segundos
-                Thread.sleep(500);
+    // NUEVO: Otro servidor escribió los datos del jugador - parchear la copia en cache si la tenemos
+    private void onRemoteChange(UUID playerId, Document doc) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        if (cached == null || cached.isLocked() || isShuttingDown.get()) {
+            return; // Nada que invalidar: la próxima carga leerá la versión nueva
+        }
+
+        if (doc == null) {
+            // Documento borrado (p.ej. reset desde otro servidor)
+            if (!cached.isDirty()) {
+                invalidatePlayerCache(playerId);
             }
+            return;
+        }
 
-            // Guardado final con más tiempo
-            saveAllDirtyBackpacks();
+        long remoteVersion = doc.get("version") instanceof Number number ? number.longValue() : 0;
+        if (remoteVersion <= cached.getVersion()) {
+            return; // Ya aplicado (o es nuestra propia escritura)
+        }
+
+        PlayerBackpacks remote = new PlayerBackpacks();
+        remote.fromDocument(doc);
 
-            // Cerrar executor
-            mongoExecutor.shutdown();
-            if (!mongoExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
-                mongoExecutor.shutdownNow();
+        // Los inventarios se modifican en el hilo del servidor: aplicar el parche allí
+        Runnable apply = () -> {
+            if (localCache.get(playerId) != cached) {
+                return;
+            }
+            if (cached.applyRemote(remote)) {
+                remoteUpdates.incrementAndGet();
+                lastSyncTime.put(playerId, System.currentTimeMillis());
+                BackpackSyncManager.notifyPlayerChanged(playerId);
+                if (!pinnedPlayers.contains(playerId)) {
+                    trackOffline(playerId, cached);
+                }
             }
+        };
 
-            // Cerrar MongoDB
-            mongoClient.close();
+        runOnServerThread(apply);
+    }
 
-            // Limpiar caches
-            localCache.clear();
-            lastSyncTime.clear();
-            pendingWrites.clear();
+    /**
+     * Abre el write-ahead log y reaplica los cambios que no llegaron al almacenamiento.
+     * Se llama en el hilo del servidor al arrancar, antes de que entren jugadores.
+     */
+    public void openWriteAheadLog() {
+        BackpackConfig config = ConfigManager.getConfig();
+        if (!config.writeAheadLog || writeAheadLog != null) {
+            return;
+        }
 
-            BackpacksMod.LOGGER.info("MongoDB cerrado correctamente");
+        BackpackWriteAheadLog wal;
+        try {
+            wal = new BackpackWriteAheadLog(ConfigManager.getConfigDirectory().resolve("wal"),
+                    config.walSegmentSizeMb * 1024 * 1024);
         } catch (Exception e) {
-            BackpacksMod.LOGGER.error("Error cerrando MongoDB", e);
-            mongoExecutor.shutdownNow();
+            BackpacksMod.LOGGER.error("Could not open write-ahead log, saves are not journaled", e);
+            return;
         }
+        writeAheadLog = wal;
+
+        Map<UUID, Map<Integer, Document>> recovered = wal.takeRecovered();
+        if (!recovered.isEmpty()) {
+            pendingRecovery.putAll(recovered);
+            int replayed = recoverPending();
+            BackpacksMod.LOGGER.warn("Write-ahead log: replayed unsaved changes of " + replayed + "/" +
+                    recovered.size() + " players");
+            // Anotarlos en el segmento nuevo para que los antiguos se puedan liberar
+            journalDirtyPlayers();
+            requestWriteBehindFlush();
+        }
+
+        // Volcado a disco y liberación de segmentos fuera del hilo del servidor
+        walSyncTask = BackpackScheduler.scheduleAtFixedRate(BackpackScheduler.Lane.HOUSEKEEPING, this::syncWriteAheadLog,
+                1, 1, TimeUnit.SECONDS);
     }
 
-    // CORREGIDO: getPlayerBackpacks más tolerante
-    public PlayerBackpacks getPlayerBackpacks(UUID playerId) {
-        if (isShuttingDown.get()) {
-            return getCachedOrEmpty(playerId);
+    /**
+     * Anota en el write-ahead log las mochilas modificadas de los jugadores marcados. Se llama al final
+     * de cada tick en el hilo del servidor, así varios cambios en el mismo tick se anotan una sola vez.
+     */
+    public void journalDirtyPlayers() {
+        BackpackWriteAheadLog wal = writeAheadLog;
+        if (wal == null) {
+            journalPending.clear();
+            return;
+        }
+        if (journalPending.isEmpty()) {
+            return;
         }
 
-        PlayerBackpacks backpacks = localCache.get(playerId);
-        Long lastSync = lastSyncTime.get(playerId);
+        Iterator<UUID> iterator = journalPending.iterator();
+        while (iterator.hasNext()) {
+            UUID playerId = iterator.next();
+            iterator.remove();
 
-        boolean needsReload = backpacks == null || lastSync == null ||
-                (System.currentTimeMillis() - lastSync) > CACHE_TIMEOUT;
+            PlayerBackpacks backpacks = localCache.get(playerId);
+            if (backpacks == null) {
+                continue;
+            }
 
-        if (needsReload) {
             try {
-                // Timeout más permisivo para carga síncrona
-                backpacks = loadPlayerBackpacks(playerId).get(10, TimeUnit.SECONDS);
-            } catch (TimeoutException e) {
-                BackpacksMod.LOGGER.warn("Load timeout for player " + playerId + ", using cache");
-                if (backpacks == null) {
-                    backpacks = new PlayerBackpacks();
-                    updateCache(playerId, backpacks);
+                long seq = 0;
+                for (Map.Entry<Integer, BackpackData> entry : backpacks.drainJournal().entrySet()) {
+                    BackpackData backpack = entry.getValue();
+                    Document encoded = backpack != null ? PlayerBackpacks.encodeBackpack(entry.getKey(), backpack, null) : null;
+                    seq = wal.append(playerId, entry.getKey(), encoded);
                 }
-            } catch (Exception e) {
-                BackpacksMod.LOGGER.warn("Error loading player " + playerId + ": " + e.getMessage());
-                if (backpacks == null) {
-                    backpacks = new PlayerBackpacks();
-                    updateCache(playerId, backpacks);
+                if (seq > 0) {
+                    backpacks.setJournalSeq(seq);
                 }
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Write-ahead log append failed for " + playerId + ": " + e.getMessage());
             }
         }
-
-        return backpacks;
     }
 
-    public boolean hasPendingWrites() {
-        return !pendingWrites.isEmpty() || activeOperations.get() > 0;
-    }
+    // Reaplica las anotaciones recuperadas; los jugadores que fallen se reintentan en el siguiente volcado
+    private int recoverPending() {
+        int replayed = 0;
+        for (Map.Entry<UUID, Map<Integer, Document>> entry : pendingRecovery.entrySet()) {
+            UUID playerId = entry.getKey();
+            Map<Integer, Document> entries = entry.getValue();
+
+            PlayerBackpacks cached = localCache.get(playerId);
+            if (cached != null && !cached.isLocked()) {
+                // Ya cargado: los cambios recuperados sustituyen a esas mochilas en el hilo del servidor
+                MainThreadTaskQueue.post(() -> {
+                    // Puede haberse encolado dos veces si el hilo del servidor va retrasado
+                    if (pendingRecovery.get(playerId) == entries) {
+                        cached.applyJournal(entries);
+                        finishRecovery(playerId);
+                    }
+                });
+                replayed++;
+                continue;
+            }
 
-    public void invalidatePlayerCache(UUID playerId) {
-        localCache.remove(playerId);
-        lastSyncTime.remove(playerId);
+            try {
+                Document doc = storage.load(playerId);
+                PlayerBackpacks backpacks = new PlayerBackpacks();
+                if (doc != null) {
+                    backpacks.fromDocument(doc);
+                }
+                backpacks.applyJournal(entries);
+                updateCache(playerId, backpacks);
+                finishRecovery(playerId);
+                replayed++;
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Could not replay write-ahead log for " + playerId + ", will retry: " + e.getMessage());
+            }
+        }
+        return replayed;
     }
 
-    public void cleanupInactiveCache() {
-        if (isShuttingDown.get()) return;
+    private void finishRecovery(UUID playerId) {
+        pendingRecovery.remove(playerId);
+        writeBehindQueue.add(playerId);
+        journalPending.add(playerId);
+    }
 
-        try {
-            cleanupCacheGracefully();
-        } catch (Exception e) {
-            BackpacksMod.LOGGER.error("Error in cleanup", e);
+    private void acknowledgeJournal(Map<UUID, Long> confirmed) {
+        BackpackWriteAheadLog wal = writeAheadLog;
+        if (wal == null || confirmed.isEmpty()) {
+            return;
+        }
+        Map<UUID, Long> toAck = new HashMap<>();
+        for (Map.Entry<UUID, Long> entry : confirmed.entrySet()) {
+            if (entry.getValue() > 0) {
+                toAck.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!toAck.isEmpty()) {
+            wal.acknowledge(toAck);
         }
     }
 
-    // Métodos de gestión simplificados permanecen igual...
+    private void syncWriteAheadLog() {
+        BackpackWriteAheadLog wal = writeAheadLog;
+        if (wal == null) {
+            return;
+        }
+        wal.sync();
+
+        if (!pendingRecovery.isEmpty()) {
+            recoverPending();
+        }
+
+        // Jugadores que bloquean segmentos antiguos: volver a anotar su copia actual
+        for (UUID playerId : wal.getPlayersBlockingRelease(WAL_MAX_SEALED_SEGMENTS)) {
+            PlayerBackpacks backpacks = localCache.get(playerId);
+            if (backpacks != null) {
+                backpacks.markAllForJournal();
+                journalPending.add(playerId);
+            }
+        }
+    }
+
+    public String getWriteAheadLogStats() {
+        BackpackWriteAheadLog wal = writeAheadLog;
+        return wal != null ? wal.getStats() : "disabled";
+    }
+
+    // CORREGIDO: Si no hay nada en cache la copia vacía queda bloqueada; nunca se guarda encima de los datos reales
+    private PlayerBackpacks getCachedOrLocked(UUID playerId) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        if (cached == null) {
+            cached = new PlayerBackpacks();
+            cached.lock();
+            updateCache(playerId, cached);
+        }
+        return cached;
+    }
+
+    public boolean isLocked(UUID playerId) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        return cached != null && cached.isLocked();
+    }
+
+    public boolean isDegraded() {
+        return degraded.get();
+    }
+
+    private void enterDegradedMode(String reason) {
+        if (isShuttingDown.get() || !degraded.compareAndSet(false, true)) {
+            return;
+        }
+        degradedSince = System.currentTimeMillis();
+        probeBackoffMs = PROBE_MIN_BACKOFF_MS;
+        nextProbeAt = degradedSince + PROBE_MIN_BACKOFF_MS;
+        degradedEpisodes.incrementAndGet();
+        BackpacksMod.LOGGER.error("Backpack storage unavailable (" + reason + ") - entering degraded mode: " +
+                "new loads are locked, saves are kept in cache" + (writeAheadLog != null ? " and the write-ahead log" : ""));
+    }
+
+    /**
+     * En modo degradado comprueba si el almacenamiento ha vuelto, con espera exponencial entre intentos.
+     * Se puede llamar en cada tick: solo hace algo cuando toca.
+     */
+    public void probeStorageIfDue() {
+        if (!degraded.get() || isShuttingDown.get() || System.currentTimeMillis() < nextProbeAt) {
+            return;
+        }
+        if (!probeInFlight.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            loadExecutor.execute(() -> {
+                try {
+                    storage.ping();
+                    exitDegradedMode();
+                } catch (Exception e) {
+                    // Espera exponencial con algo de azar para que varios servidores no reconecten a la vez
+                    probeBackoffMs = Math.min(probeBackoffMs * 2, PROBE_MAX_BACKOFF_MS);
+                    long jitter = (long) (probeBackoffMs * 0.2 * Math.random());
+                    nextProbeAt = System.currentTimeMillis() + probeBackoffMs + jitter;
+                    BackpacksMod.LOGGER.warn("Backpack storage still unavailable, next check in " +
+                            (probeBackoffMs + jitter) / 1000 + "s: " + e.getMessage());
+                } finally {
+                    probeInFlight.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            probeInFlight.set(false);
+        }
+    }
+
+    private void exitDegradedMode() {
+        if (!degraded.compareAndSet(true, false)) {
+            return;
+        }
+        long outage = (System.currentTimeMillis() - degradedSince) / 1000;
+        probeBackoffMs = PROBE_MIN_BACKOFF_MS;
+        nextProbeAt = 0;
+        BackpacksMod.LOGGER.info("Backpack storage available again after " + outage + "s - replaying pending saves");
+
+        // Primero las cargas bloqueadas (de una en una), después los guardados pendientes por el write-behind
+        List<UUID> lockedPlayers = new ArrayList<>();
+        for (Map.Entry<UUID, PlayerBackpacks> entry : localCache.entrySet()) {
+            if (entry.getValue().isLocked()) {
+                lockedPlayers.add(entry.getKey());
+            }
+        }
+
+        try {
+            loadExecutor.execute(() -> {
+                for (UUID playerId : lockedPlayers) {
+                    if (degraded.get() || isShuttingDown.get()) {
+                        return; // Ha vuelto a caer: el siguiente intento retomará los que queden
+                    }
+                    PlayerBackpacks reloaded = loadFromStorage(playerId);
+                    if (!reloaded.isLocked()) {
+                        MainThreadTaskQueue.post(() -> PlayerEventsHandler.onBackpacksUnlocked(playerId));
+                    }
+                }
+                requestWriteBehindFlush();
+            });
+        } catch (RejectedExecutionException e) {
+            // Se recargarán en el siguiente acceso (las copias bloqueadas siempre están caducadas)
+            requestWriteBehindFlush();
+        }
+    }
+
+    public String getDegradedStats() {
+        if (!degraded.get()) {
+            return "no (" + degradedEpisodes.get() + " outages)";
+        }
+        long locked = localCache.values().stream().filter(PlayerBackpacks::isLocked).count();
+        return "YES for " + (System.currentTimeMillis() - degradedSince) / 1000 + "s, " + locked + " locked players, " +
+                writeBehindQueue.size() + " saves spooled";
+    }
+
+    // Guardado masivo: todos los jugadores con cambios, agrupados en lotes bulkWrite (sin límite por llamada)
+    public void saveAllDirtyBackpacks() {
+        if (isShuttingDown.get()) {
+            return;
+        }
+        flushAllDirty();
+    }
+
+    private void flushAllDirty() {
+        if (degraded.get()) {
+            // Un único intento: si sigue caído los cambios se quedan en el write-ahead log
+            try {
+                storage.ping();
+                // CORREGIDO: Salida completa (desbloquea y recarga a los jugadores bloqueados), no solo el flag
+                exitDegradedMode();
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Storage unavailable, " + writeBehindQueue.size() + " players not saved" +
+                        (writeAheadLog != null ? " (kept in the write-ahead log)" : ""));
+                return;
+            }
+        }
+
+        Set<UUID> players = drainWriteBehindQueue();
+        for (Map.Entry<UUID, PlayerBackpacks> entry : localCache.entrySet()) {
+            if (entry.getValue().isDirty()) {
+                players.add(entry.getKey());
+            }
+        }
+
+        if (players.isEmpty()) {
+            return;
+        }
+
+        try {
+            int saved = flushPlayers(players);
+            BackpacksMod.LOGGER.info("Saved " + saved + " dirty backpacks");
+            if (saved < players.size() && !writeBehindQueue.isEmpty()) {
+                BackpacksMod.LOGGER.warn("Mass save incomplete - " + writeBehindQueue.size() + " players queued for retry");
+            }
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error in mass save operation", e);
+        }
+    }
+
+    // Cache management mejorado
+    private void updateCache(UUID playerId, PlayerBackpacks backpacks) {
+        localCache.put(playerId, backpacks);
+        lastSyncTime.put(playerId, System.currentTimeMillis());
+
+        // Los jugadores conectados están fijados; el resto entra en el LRU con límite de peso
+        if (!pinnedPlayers.contains(playerId)) {
+            trackOffline(playerId, backpacks);
+        }
+    }
+
+    // NUEVO: LRU ponderado por número de stacks guardados para jugadores desconectados
+    // CORREGIDO: Solo entradas sin cambios pendientes: las demás entran al confirmarse su guardado (onSaveConfirmed)
+    private void trackOffline(UUID playerId, PlayerBackpacks backpacks) {
+        if (backpacks.hasUnsavedChanges()) {
+            untrackOffline(playerId);
+            return;
+        }
+        int weight = computeWeight(backpacks);
+        synchronized (offlineLru) {
+            Integer previous = offlineLru.put(playerId, weight);
+            offlineWeight += weight - (previous != null ? previous : 0);
+        }
+        evictOfflineIfNeeded();
+    }
+
+    // Guardado confirmado: un jugador desconectado vuelve al LRU
+    private void onSaveConfirmed(UUID playerId, PlayerBackpacks backpacks) {
+        if (!pinnedPlayers.contains(playerId) && localCache.get(playerId) == backpacks) {
+            trackOffline(playerId, backpacks);
+        }
+    }
+
+    private void touchOffline(UUID playerId) {
+        synchronized (offlineLru) {
+            offlineLru.get(playerId); // accessOrder: mueve la entrada al final
+        }
+    }
+
+    private void untrackOffline(UUID playerId) {
+        synchronized (offlineLru) {
+            Integer previous = offlineLru.remove(playerId);
+            if (previous != null) {
+                offlineWeight -= previous;
+            }
+        }
+    }
+
+    private void evictOfflineIfNeeded() {
+        long maxWeight = ConfigManager.getConfig().offlineCacheMaxItemStacks;
+        synchronized (offlineLru) {
+            Iterator<Map.Entry<UUID, Integer>> iterator = offlineLru.entrySet().iterator();
+            while (offlineWeight > maxWeight && iterator.hasNext()) {
+                Map.Entry<UUID, Integer> eldest = iterator.next();
+                UUID playerId = eldest.getKey();
+                PlayerBackpacks backpacks = localCache.get(playerId);
+
+                iterator.remove();
+                offlineWeight -= eldest.getValue();
+
+                // Nunca descartar cambios sin guardar: modificada después de entrar, sale del LRU hasta su guardado
+                if (backpacks != null && backpacks.hasUnsavedChanges()) {
+                    continue;
+                }
+
+                if (backpacks != null && localCache.remove(playerId, backpacks)) {
+                    lastSyncTime.remove(playerId);
+                }
+                cacheEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static int computeWeight(PlayerBackpacks backpacks) {
+        int weight = 1;
+        for (BackpackData backpack : backpacks.getAllBackpacks().values()) {
+            weight += 1 + backpack.getUsedSlots();
+        }
+        return weight;
+    }
+
+    private void recordCacheAccess(UUID playerId, boolean hit) {
+        if (hit) {
+            cacheHits.incrementAndGet();
+            if (!pinnedPlayers.contains(playerId)) {
+                touchOffline(playerId);
+            }
+        } else {
+            cacheMisses.incrementAndGet();
+        }
+    }
+
+    public long getVersionConflicts() {
+        return versionConflicts.get();
+    }
+
+    public String getCrossServerStats() {
+        String mode = storage.getRemoteWatchMode();
+        if ("disabled".equals(mode)) {
+            return mode;
+        }
+        return mode + ", " + remoteUpdates.get() + " remote updates applied";
+    }
+
+    public String getQueueStats() {
+        return String.format("%d/%d mongo operations active, saves %d queued (%d coalesced), write-behind %d",
+                mongoOperations.getActive(), mongoOperations.getPermits(),
+                queuedSaves.size(), coalescedSaves.get(), writeBehindQueue.size());
+    }
+
+    public String getCacheStats() {
+        long hits = cacheHits.get();
+        long misses = cacheMisses.get();
+        long total = hits + misses;
+        int offlineEntries;
+        long weight;
+        synchronized (offlineLru) {
+            offlineEntries = offlineLru.size();
+            weight = offlineWeight;
+        }
+        return String.format("%d entries (%d online, %d offline / %d of %d stacks), hits %d, misses %d (%.1f%% hit), evictions %d, summary reads %d (%d full loads), inventories decoded %d / released %d",
+                localCache.size(), pinnedPlayers.size(), offlineEntries, weight,
+                ConfigManager.getConfig().offlineCacheMaxItemStacks,
+                hits, misses, total > 0 ? hits * 100.0 / total : 0.0, cacheEvictions.get(),
+                summaryReads.get(), summaryFallbacks.get(), inventoriesDecoded.get(), inventoriesReleased.get());
+    }
+
+    // NUEVO: Limpieza de cache más suave
+    private void cleanupCacheGracefully() {
+        try {
+            long now = System.currentTimeMillis();
+            List<UUID> toRemove = new ArrayList<>();
+
+            // Solo remover entradas muy antiguas
+            for (Map.Entry<UUID, Long> entry : lastSyncTime.entrySet()) {
+                UUID playerId = entry.getKey();
+                long lastSync = entry.getValue();
+                PlayerBackpacks backpacks = localCache.get(playerId);
+
+                // Solo remover si es muy antiguo, no está sucio y el jugador no está conectado
+                if (!pinnedPlayers.contains(playerId) && (now - lastSync) > (CACHE_TIMEOUT * 2) &&
+                        (backpacks == null || !backpacks.isDirty())) {
+                    toRemove.add(playerId);
+                }
+            }
+
+            // Limitar cuánto removemos de una vez
+            int maxToRemove = Math.min(toRemove.size(), MAX_CACHE_SIZE / 4);
+            for (int i = 0; i < maxToRemove; i++) {
+                UUID playerId = toRemove.get(i);
+                localCache.remove(playerId);
+                lastSyncTime.remove(playerId);
+                untrackOffline(playerId);
+            }
+
+            if (maxToRemove > 0) {
+                BackpacksMod.LOGGER.debug("Cleaned " + maxToRemove + " entries from cache gracefully");
+            }
+
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error in graceful cache cleanup", e);
+        }
+    }
+
+    // CORREGIDO: Cierre más robusto
+    public void close() {
+        BackpacksMod.LOGGER.info("Iniciando cierre de MongoDB...");
+        isShuttingDown.set(true);
+
+        try {
+            // CORREGIDO: Esperar a que terminen las operaciones activas sin sondear
+            // (con isShuttingDown no entran operaciones nuevas)
+            if (!mongoOperations.awaitIdle(15, TimeUnit.SECONDS)) {
+                BackpacksMod.LOGGER.warn(mongoOperations.getActive() + " MongoDB operations still running while closing storage");
+            }
+
+            // Guardado final (saveAllDirtyBackpacks ignora llamadas durante el cierre)
+            flushAllDirty();
+
+            // Los carriles son del BackpackScheduler: solo esperar a que terminen los guardados en cola
+            if (!BackpackScheduler.awaitIdle(BackpackScheduler.Lane.IO_SAVE, 10000)) {
+                BackpacksMod.LOGGER.warn("Pending saves still running while closing storage");
+            }
+
+            // Cerrar el almacenamiento (MongoDB o fichero local)
+            storage.close();
+
+            // Con todo confirmado el log se borra; si no, se reaplica en el próximo arranque
+            if (walSyncTask != null) {
+                walSyncTask.cancel(false);
+            }
+            BackpackWriteAheadLog wal = writeAheadLog;
+            if (wal != null) {
+                writeAheadLog = null;
+                wal.close();
+            }
+
+            // Limpiar caches
+            localCache.clear();
+            lastSyncTime.clear();
+            pendingWrites.clear();
+            pinnedPlayers.clear();
+            sessionReady.clear();
+            synchronized (offlineLru) {
+                offlineLru.clear();
+                offlineWeight = 0;
+            }
+
+            BackpacksMod.LOGGER.info("MongoDB cerrado correctamente");
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error cerrando MongoDB", e);
+        }
+    }
+
+    /**
+     * Versión asíncrona: devuelve el cache al instante si existe (refrescándolo en segundo plano si
+     * está caducado) o una carga desde MongoDB compartida con otras peticiones del mismo jugador.
+     */
+    public CompletableFuture<PlayerBackpacks> getPlayerBackpacksAsync(UUID playerId) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        recordCacheAccess(playerId, cached != null);
+        if (cached != null || isShuttingDown.get()) {
+            if (cached != null && isStale(playerId)) {
+                loadCoalesced(playerId);
+            }
+            return CompletableFuture.completedFuture(cached != null ? cached : getCachedOrLocked(playerId));
+        }
+        return loadCoalesced(playerId);
+    }
+
+    // Una sola carga en vuelo por jugador
+    private CompletableFuture<PlayerBackpacks> loadCoalesced(UUID playerId) {
+        CompletableFuture<PlayerBackpacks> existing = loadsInFlight.get(playerId);
+        if (existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<PlayerBackpacks> created = new CompletableFuture<>();
+        existing = loadsInFlight.putIfAbsent(playerId, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        loadPlayerBackpacks(playerId).whenComplete((result, throwable) -> {
+            loadsInFlight.remove(playerId, created);
+            if (throwable != null) {
+                created.completeExceptionally(throwable);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Empieza a cargar los datos del jugador (login/preauth) y devuelve el future de "listo" de su sesión.
+     * Las llamadas repetidas (login y después JOIN) comparten la misma carga.
+     */
+    public CompletableFuture<PlayerBackpacks> prefetchPlayer(UUID playerId) {
+        return sessionReady.compute(playerId, (id, existing) -> {
+            if (existing != null && !existing.isCompletedExceptionally()) {
+                return existing;
+            }
+
+            // Datos frescos al entrar (puede venir de otro servidor), salvo cambios locales sin guardar
+            PlayerBackpacks cached = localCache.get(id);
+            if (cached != null && !cached.isDirty()) {
+                invalidatePlayerCache(id);
+            }
+            return loadCoalesced(id);
+        });
+    }
+
+    /**
+     * Future que se completa cuando los datos del jugador están disponibles (sin bloquear ningún hilo)
+     */
+    public CompletableFuture<PlayerBackpacks> whenPlayerReady(UUID playerId) {
+        CompletableFuture<PlayerBackpacks> ready = sessionReady.get(playerId);
+        return ready != null ? ready : getPlayerBackpacksAsync(playerId);
+    }
+
+    public boolean isPlayerReady(UUID playerId) {
+        CompletableFuture<PlayerBackpacks> ready = sessionReady.get(playerId);
+        return ready != null ? ready.isDone() : localCache.containsKey(playerId);
+    }
+
+    public void releasePlayerSession(UUID playerId) {
+        sessionReady.remove(playerId);
+    }
+
+    // Los jugadores conectados nunca caducan: este servidor es el único que escribe sus datos
+    private boolean isStale(UUID playerId) {
+        PlayerBackpacks cached = localCache.get(playerId);
+        if (cached != null && cached.isLocked()) {
+            return true; // Copia de emergencia: recargar en cuanto se pueda
+        }
+        if (pinnedPlayers.contains(playerId)) {
+            return false;
+        }
+        Long lastSync = lastSyncTime.get(playerId);
+        return lastSync == null || (System.currentTimeMillis() - lastSync) > CACHE_TIMEOUT;
+    }
+
+    // CORREGIDO: getPlayerBackpacks sin bloquear el hilo del servidor cuando ya hay datos en cache
+    public PlayerBackpacks getPlayerBackpacks(UUID playerId) {
+        if (isShuttingDown.get()) {
+            return getCachedOrLocked(playerId);
+        }
+
+        PlayerBackpacks backpacks = localCache.get(playerId);
+        boolean stale = isStale(playerId);
+        recordCacheAccess(playerId, backpacks != null);
+
+        if (backpacks != null && stale && ConfigManager.getConfig().staleWhileRevalidate) {
+            // Stale-while-revalidate: devolver la copia actual y refrescar en segundo plano
+            loadCoalesced(playerId);
+            return backpacks;
+        }
+
+        if (backpacks == null || stale) {
+            try {
+                // Solo se bloquea si no hay nada en cache (o si stale-while-revalidate está desactivado)
+                backpacks = loadCoalesced(playerId).get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                BackpacksMod.LOGGER.warn("Load timeout for player " + playerId + ", using cache");
+                if (backpacks == null) {
+                    backpacks = getCachedOrLocked(playerId);
+                }
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.warn("Error loading player " + playerId + ": " + e.getMessage());
+                if (backpacks == null) {
+                    backpacks = getCachedOrLocked(playerId);
+                }
+            }
+        }
+
+        return backpacks;
+    }
+
+    public boolean hasPendingWrites() {
+        return !pendingWrites.isEmpty() || !queuedSaves.isEmpty() || !writeBehindQueue.isEmpty() || mongoOperations.getActive() > 0;
+    }
+
+    /**
+     * Fija la entrada de cache del jugador mientras dure su sesión (solo se recarga con invalidación explícita)
+     */
+    public void pinPlayer(UUID playerId) {
+        pinnedPlayers.add(playerId);
+        untrackOffline(playerId);
+    }
+
+    public void unpinPlayer(UUID playerId) {
+        if (pinnedPlayers.remove(playerId)) {
+            // Vuelve a la caducidad por tiempo y al LRU de desconectados desde este momento
+            lastSyncTime.put(playerId, System.currentTimeMillis());
+            PlayerBackpacks backpacks = localCache.get(playerId);
+            if (backpacks != null) {
+                trackOffline(playerId, backpacks);
+            }
+        }
+    }
+
+    public boolean isPinned(UUID playerId) {
+        return pinnedPlayers.contains(playerId);
+    }
+
+    public void invalidatePlayerCache(UUID playerId) {
+        localCache.remove(playerId);
+        lastSyncTime.remove(playerId);
+        untrackOffline(playerId);
+    }
+
+    public void cleanupInactiveCache() {
+        if (isShuttingDown.get()) return;
+
+        try {
+            cleanupCacheGracefully();
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Error in cleanup", e);
+        }
+    }
+
+    // Métodos de gestión simplificados permanecen igual...
     public void addBackpack(UUID playerId, int id, String name, int slots) {
         if (isShuttingDown.get()) return;
 
         PlayerBackpacks backpacks = getPlayerBackpacks(playerId);
+        if (backpacks.isLocked()) {
+            throw new RuntimeException("Almacenamiento de mochilas no disponible");
+        }
         try {
             backpacks.addBackpack(id, name, slots);
             // Guardado asíncrono no bloqueante
@@ -401,6 +1367,9 @@ public class MongoBackpackManager {
         if (isShuttingDown.get()) return;
 
         PlayerBackpacks backpacks = getPlayerBackpacks(playerId);
+        if (backpacks.isLocked()) {
+            throw new RuntimeException("Almacenamiento de mochilas no disponible");
+        }
         backpacks.removeBackpack(id);
         // Guardado asíncrono no bloqueante
         savePlayerBackpacks(playerId, backpacks);
@@ -415,6 +1384,8 @@ public class MongoBackpackManager {
         PlayerBackpacks backpacks = localCache.get(playerId);
         if (backpacks != null) {
             backpacks.markDirty();
+            writeBehindQueue.add(playerId);
+            journalPending.add(playerId);
         }
     }
 
@@ -422,18 +1393,39 @@ public class MongoBackpackManager {
         return new HashMap<>(localCache);
     }
 
-    // PlayerBackpacks class permanece igual...
+    // PlayerBackpacks con seguimiento de cambios para guardado incremental
     public static class PlayerBackpacks {
+        // 1 = items en SNBT (texto), 2 = mapa por id/slot con items en NBT binario, 3 = con índice summary
+        public static final int SCHEMA_VERSION = 3;
+
         private final Map<Integer, BackpackData> backpacks = new HashMap<>();
+        private final Set<Integer> removedBackpacks = new HashSet<>();
         private volatile boolean dirty = false;
+        private volatile boolean needsFullWrite = false;
         private volatile long lastSync = 0;
 
-        public void addBackpack(int id, String name, int slots) {
+        // Control de concurrencia optimista: versión del documento en MongoDB sobre la que se basa este cache
+        private long version = 0;
+        private final AtomicBoolean writeInFlight = new AtomicBoolean(false);
+
+        // Write-ahead log: mochilas eliminadas sin anotar y última secuencia anotada del jugador
+        private final Set<Integer> journalRemoved = new HashSet<>();
+        private volatile long journalSeq = 0;
+
+        // Copia vacía creada porque no se pudo cargar: solo lectura, nunca se guarda
+        private volatile boolean locked = false;
+
+        public synchronized void addBackpack(int id, String name, int slots) {
+            if (locked) {
+                throw new IllegalStateException("Datos no cargados: almacenamiento no disponible");
+            }
             BackpackConfig config = ConfigManager.getConfig();
             if (backpacks.size() >= config.maxBackpacksPerPlayer) {
                 throw new IllegalStateException("Límite de mochilas alcanzado");
             }
             backpacks.put(id, new BackpackData(name, slots));
+            removedBackpacks.remove(id);
+            journalRemoved.remove(id);
             markDirty();
         }
 
@@ -441,8 +1433,12 @@ public class MongoBackpackManager {
             addBackpack(id, name, ConfigManager.getConfig().backpackSlots);
         }
 
-        public void removeBackpack(int id) {
-            backpacks.remove(id);
+        public synchronized void removeBackpack(int id) {
+            if (locked) return;
+            if (backpacks.remove(id) != null) {
+                removedBackpacks.add(id);
+                journalRemoved.add(id);
+            }
             markDirty();
         }
 
@@ -458,97 +1454,340 @@ public class MongoBackpackManager {
             return backpacks.containsKey(id);
         }
 
-        public void markDirty() {
-            this.dirty = true;
+        public void markDirty() {
+            if (!locked) {
+                this.dirty = true;
+            }
+        }
+
+        public boolean isLocked() {
+            return locked;
+        }
+
+        void lock() {
+            locked = true;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        // Cambios aún no confirmados en el almacenamiento: pendientes o en una escritura en vuelo
+        public boolean hasUnsavedChanges() {
+            return dirty || writeInFlight.get();
+        }
+
+        public void markClean() {
+            this.dirty = false;
+        }
+
+        public void setLastSync(long time) {
+            this.lastSync = time;
+        }
+
+        public long getLastSync() {
+            return lastSync;
+        }
+
+        public synchronized long getVersion() {
+            return version;
+        }
+
+        boolean tryBeginWrite() {
+            return writeInFlight.compareAndSet(false, true);
+        }
+
+        // Cierra la escritura en vuelo: si tuvo éxito avanza la versión, si no devuelve los cambios
+        synchronized void finishWrite(PendingChanges changes, boolean success) {
+            if (changes != null) {
+                if (success) {
+                    version = changes.expectedVersion + 1;
+                    // CORREGIDO: Los hashes de lo escrito pasan a ser "lo guardado" solo ahora que se confirmó
+                    for (Map.Entry<Integer, int[]> entry : changes.writtenHashes.entrySet()) {
+                        BackpackData backpack = backpacks.get(entry.getKey());
+                        if (backpack != null) {
+                            backpack.commitSlotHashes(entry.getValue());
+                        }
+                    }
+                } else {
+                    restoreChanges(changes);
+                }
+            }
+            writeInFlight.set(false);
+        }
+
+        /**
+         * Aplica un documento más reciente escrito por otro servidor. Devuelve false si hay una escritura
+         * en vuelo o pendiente de reescritura completa: en ese caso lo resuelve el conflicto de versión.
+         */
+        synchronized boolean applyRemote(PlayerBackpacks remote) {
+            if (remote.version <= version) {
+                return false;
+            }
+            if (needsFullWrite || !tryBeginWrite()) {
+                return false;
+            }
+            try {
+                mergeRemote(remote, new PendingChanges(false, version));
+            } finally {
+                writeInFlight.set(false);
+            }
+            return true;
+        }
+
+        /**
+         * Integra el documento remoto (escrito por otro servidor) conservando los cambios locales pendientes:
+         * mochilas, slots y metadatos modificados aquí ganan; todo lo demás se toma del remoto.
+         */
+        synchronized void mergeRemote(PlayerBackpacks remote, PendingChanges changes) {
+            for (Map.Entry<Integer, BackpackData> entry : remote.backpacks.entrySet()) {
+                int id = entry.getKey();
+                if (changes.removed.contains(id) || removedBackpacks.contains(id)) {
+                    continue; // Eliminada aquí
+                }
+
+                BackpackData local = backpacks.get(id);
+                if (local == null) {
+                    // Añadida por otro servidor
+                    BackpackData added = entry.getValue();
+                    added.clearChanges();
+                    backpacks.put(id, added);
+                } else if (!changes.fullWrite) {
+                    local.mergeRemote(entry.getValue(), changes.changed.get(id));
+                }
+            }
+
+            if (!changes.fullWrite) {
+                // Eliminadas por otro servidor y sin cambios locales
+                backpacks.entrySet().removeIf(entry -> !remote.backpacks.containsKey(entry.getKey()) &&
+                        !changes.changed.containsKey(entry.getKey()) && !entry.getValue().hasChanges());
+            }
+
+            // Documento escrito por una versión anterior (índice summary sin mantener): reescribir completo
+            if (remote.needsFullWrite) {
+                needsFullWrite = true;
+                markDirty();
+            }
+
+            version = remote.version;
+        }
+
+        /**
+         * Extrae los cambios pendientes (mochilas, metadatos y slots modificados) y limpia el estado dirty.
+         * Devuelve null si no hay nada que escribir.
+         */
+        public synchronized PendingChanges drainChanges() {
+            PendingChanges changes = new PendingChanges(needsFullWrite, version);
+            needsFullWrite = false;
+            dirty = false;
+
+            if (changes.fullWrite) {
+                for (BackpackData backpack : backpacks.values()) {
+                    backpack.clearChanges();
+                }
+                removedBackpacks.clear();
+                return changes;
+            }
+
+            changes.removed.addAll(removedBackpacks);
+            removedBackpacks.clear();
+
+            for (Map.Entry<Integer, BackpackData> entry : backpacks.entrySet()) {
+                BackpackChange change = entry.getValue().drainChanges();
+                if (change != null) {
+                    changes.changed.put(entry.getKey(), change);
+                }
+            }
+
+            return changes.isEmpty() ? null : changes;
+        }
+
+        /**
+         * Reincorpora cambios que no se pudieron escribir para reintentarlos en el próximo guardado
+         */
+        public synchronized void restoreChanges(PendingChanges changes) {
+            if (changes == null) return;
+
+            if (changes.fullWrite) {
+                needsFullWrite = true;
+            } else {
+                for (Integer id : changes.removed) {
+                    if (!backpacks.containsKey(id)) {
+                        removedBackpacks.add(id);
+                    }
+                }
+                for (Map.Entry<Integer, BackpackChange> entry : changes.changed.entrySet()) {
+                    BackpackData backpack = backpacks.get(entry.getKey());
+                    if (backpack != null) {
+                        backpack.restoreChanges(entry.getValue());
+                    }
+                }
+            }
+            markDirty();
+        }
+
+        /**
+         * Mochilas modificadas desde la última anotación en el write-ahead log (valor null = eliminada)
+         */
+        synchronized Map<Integer, BackpackData> drainJournal() {
+            Map<Integer, BackpackData> changed = new HashMap<>();
+            for (Integer id : journalRemoved) {
+                changed.put(id, null);
+            }
+            journalRemoved.clear();
+            for (Map.Entry<Integer, BackpackData> entry : backpacks.entrySet()) {
+                if (entry.getValue().drainJournal()) {
+                    changed.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return changed;
+        }
+
+        // Vuelve a anotar todas las mochilas (para liberar segmentos antiguos del log)
+        synchronized void markAllForJournal() {
+            for (BackpackData backpack : backpacks.values()) {
+                backpack.markJournal();
+            }
         }
 
-        public boolean isDirty() {
-            return dirty;
+        long getJournalSeq() {
+            return journalSeq;
         }
 
-        public void markClean() {
-            this.dirty = false;
+        void setJournalSeq(long seq) {
+            journalSeq = seq;
         }
 
-        public void setLastSync(long time) {
-            this.lastSync = time;
+        /**
+         * Reaplica mochilas recuperadas del write-ahead log sobre los datos cargados del almacenamiento.
+         * Se reescribe el documento completo, y se vuelven a anotar en el log nuevo.
+         */
+        synchronized void applyJournal(Map<Integer, Document> entries) {
+            for (Map.Entry<Integer, Document> entry : entries.entrySet()) {
+                int id = entry.getKey();
+                if (entry.getValue() == null) {
+                    if (backpacks.remove(id) != null) {
+                        journalRemoved.add(id);
+                    }
+                    continue;
+                }
+                BackpackData backpack = decodeBackpack(entry.getValue());
+                if (backpack != null) {
+                    backpack.markJournal();
+                    backpacks.put(id, backpack);
+                }
+            }
+            needsFullWrite = true;
+            markDirty();
         }
 
-        public long getLastSync() {
-            return lastSync;
+        /**
+         * Construye un update con $set/$unset dirigidos (backpacks.<id>.items.<slot>) para los cambios dados
+         */
+        public Document toDeltaUpdate(PendingChanges changes) {
+            Document set = new Document();
+            Document unset = new Document();
+            long now = System.currentTimeMillis();
+
+            for (Integer id : changes.removed) {
+                unset.put("backpacks." + id, "");
+            }
+
+            for (Map.Entry<Integer, BackpackChange> entry : changes.changed.entrySet()) {
+                int id = entry.getKey();
+                BackpackData backpack = backpacks.get(id);
+                if (backpack == null) continue;
+
+                BackpackChange change = entry.getValue();
+                String path = "backpacks." + id;
+                // Hashes tras esta escritura; se adoptan en finishWrite si se confirma
+                int[] hashes = backpack.copySlotHashes();
+                changes.writtenHashes.put(id, hashes);
+
+                if (change.whole) {
+                    set.put(path, encodeBackpack(id, backpack, hashes));
+                    continue;
+                }
+
+                if (change.meta) {
+                    set.put(path + ".name", backpack.getName());
+                    Object icon = encodeIcon(backpack.getIcon());
+                    if (icon != null) {
+                        set.put(path + ".icon", icon);
+                    } else {
+                        unset.put(path + ".icon", "");
+                    }
+                }
+
+                // Solo los slots modificados (y por tanto ya decodificados)
+                DefaultedList<ItemStack> inventory = change.slots.isEmpty() ? null : backpack.getInventory();
+                for (int slot = change.slots.nextSetBit(0); slot >= 0; slot = change.slots.nextSetBit(slot + 1)) {
+                    if (slot >= inventory.size()) break;
+                    Document itemDoc = encodeStack(inventory.get(slot));
+                    if (itemDoc != null) {
+                        set.put(path + ".items." + slot, itemDoc);
+                    } else {
+                        unset.put(path + ".items." + slot, "");
+                    }
+                    hashes[slot] = itemHash(itemDoc);
+                }
+
+                set.put(path + ".lastModified", now);
+            }
+
+            // Índice summary de las mochilas tocadas, con los hashes de lo que se va a escribir
+            for (Integer id : changes.removed) {
+                unset.put("summary." + id, "");
+            }
+            for (Map.Entry<Integer, int[]> entry : changes.writtenHashes.entrySet()) {
+                BackpackData backpack = backpacks.get(entry.getKey());
+                if (backpack != null) {
+                    set.put("summary." + entry.getKey(), backpack.summarize(entry.getKey(), entry.getValue()).toDocument());
+                }
+            }
+
+            set.put("schemaVersion", SCHEMA_VERSION);
+            set.put("lastUpdated", now);
+            set.put("serverId", ConfigManager.getConfig().serverId);
+
+            Document update = new Document("$set", set);
+            if (!unset.isEmpty()) {
+                update.put("$unset", unset);
+            }
+            return update;
         }
 
-        // Los métodos de serialización permanecen igual pero con manejo de errores mejorado
         public Document toDocument() {
+            return toDocument(null);
+        }
+
+        /**
+         * Documento completo. Con changes (escritura de guardado) deja en ellos los hashes de slot escritos
+         * para adoptarlos si la escritura se confirma
+         */
+        public Document toDocument(PendingChanges changes) {
             try {
                 Document doc = new Document();
-                List<Document> backpacksList = new ArrayList<>();
+                Document backpacksDoc = new Document();
+                Map<Integer, int[]> hashes = new HashMap<>();
 
                 for (Map.Entry<Integer, BackpackData> entry : backpacks.entrySet()) {
                     try {
-                        Document backpackDoc = new Document();
-                        backpackDoc.put("id", entry.getKey());
-                        backpackDoc.put("name", entry.getValue().getName());
-                        backpackDoc.put("slots", entry.getValue().getSlots());
-
-                        // Serializar icono de forma más segura
-                        ItemStack icon = entry.getValue().getIcon();
-                        if (icon != null && !icon.isEmpty()) {
-                            MinecraftServer server = BackpacksMod.getServer();
-                            if (server != null) {
-                                try {
-                                    NbtCompound iconNbt = new NbtCompound();
-                                    ItemStack.CODEC.encode(icon, server.getRegistryManager().getOps(NbtOps.INSTANCE), new NbtCompound())
-                                            .resultOrPartial(error -> {})
-                                            .ifPresent(encoded -> backpackDoc.put("icon", encoded.toString()));
-                                } catch (Exception iconError) {
-                                    // Skip icon if error
-                                }
-                            }
-                        }
-
-                        // Serializar items
-                        List<Document> items = new ArrayList<>();
-                        DefaultedList<ItemStack> inventory = entry.getValue().getInventory();
-
-                        for (int i = 0; i < inventory.size(); i++) {
-                            ItemStack stack = inventory.get(i);
-                            if (!stack.isEmpty()) {
-                                try {
-                                    Document itemDoc = new Document();
-                                    itemDoc.put("slot", i);
-
-                                    MinecraftServer server = BackpacksMod.getServer();
-                                    if (server != null) {
-                                        NbtCompound nbt = new NbtCompound();
-                                        ItemStack.CODEC.encode(stack, server.getRegistryManager().getOps(NbtOps.INSTANCE), new NbtCompound())
-                                                .resultOrPartial(error -> {})
-                                                .ifPresent(encoded -> {
-                                                    itemDoc.put("nbt", encoded.toString());
-                                                    itemDoc.put("count", stack.getCount());
-                                                });
-                                    }
-
-                                    if (itemDoc.containsKey("nbt")) {
-                                        items.add(itemDoc);
-                                    }
-                                } catch (Exception itemError) {
-                                    // Skip problematic items
-                                }
-                            }
-                        }
-
-                        backpackDoc.put("items", items);
-                        backpackDoc.put("lastModified", System.currentTimeMillis());
-                        backpacksList.add(backpackDoc);
-
+                        int[] slotHashes = entry.getValue().copySlotHashes();
+                        backpacksDoc.put(String.valueOf(entry.getKey()), encodeBackpack(entry.getKey(), entry.getValue(), slotHashes));
+                        hashes.put(entry.getKey(), slotHashes);
                     } catch (Exception backpackError) {
                         BackpacksMod.LOGGER.warn("Error serializing backpack " + entry.getKey() + ": " + backpackError.getMessage());
                         // Skip problematic backpack
                     }
                 }
 
-                doc.put("backpacks", backpacksList);
+                doc.put("backpacks", backpacksDoc);
+                doc.put("summary", toSummaryDocument(hashes));
+                if (changes != null) {
+                    changes.writtenHashes.putAll(hashes);
+                }
+                doc.put("schemaVersion", SCHEMA_VERSION);
                 doc.put("lastUpdated", System.currentTimeMillis());
                 doc.put("serverId", ConfigManager.getConfig().serverId);
 
@@ -559,77 +1798,69 @@ public class MongoBackpackManager {
             }
         }
 
-        // fromDocument method similar improvements...
-        public void fromDocument(Document doc) {
+        private Document toSummaryDocument(Map<Integer, int[]> hashes) {
+            Document summaryDoc = new Document();
+            for (Map.Entry<Integer, BackpackData> entry : backpacks.entrySet()) {
+                BackpackSummary summary = entry.getValue().summarize(entry.getKey(), hashes.get(entry.getKey()));
+                summaryDoc.put(String.valueOf(entry.getKey()), summary.toDocument());
+            }
+            return summaryDoc;
+        }
+
+        /**
+         * Resumen de cada mochila a partir de los datos en memoria, ordenado por id
+         */
+        public synchronized Map<Integer, BackpackSummary> getSummaries() {
+            Map<Integer, BackpackSummary> summaries = new TreeMap<>();
+            for (Map.Entry<Integer, BackpackData> entry : backpacks.entrySet()) {
+                summaries.put(entry.getKey(), entry.getValue().summarize(entry.getKey()));
+            }
+            return summaries;
+        }
+
+        // Lee tanto el formato nuevo (mapa por id) como el antiguo (lista de mochilas)
+        public synchronized void fromDocument(Document doc) {
             backpacks.clear();
+            removedBackpacks.clear();
+            journalRemoved.clear();
+            needsFullWrite = false;
+            version = doc.get("version") instanceof Number number ? number.longValue() : 0;
 
             if (!doc.containsKey("backpacks")) {
                 return;
             }
 
-            try {
-                List<Document> backpacksList = doc.getList("backpacks", Document.class);
-                if (backpacksList == null) return;
+            // Documentos de versiones anteriores se reescriben completos con el formato nuevo
+            if (doc.getInteger("schemaVersion", 1) < SCHEMA_VERSION) {
+                needsFullWrite = true;
+            }
 
-                for (Document backpackDoc : backpacksList) {
-                    try {
-                        Integer id = backpackDoc.getInteger("id");
-                        String name = backpackDoc.getString("name");
-                        Integer slots = backpackDoc.getInteger("slots", ConfigManager.getConfig().backpackSlots);
+            try {
+                Object rawBackpacks = doc.get("backpacks");
+                List<Document> backpacksList = new ArrayList<>();
 
-                        if (id == null || name == null || slots == null) {
-                            continue; // Skip invalid backpack
+                if (rawBackpacks instanceof Document backpacksDoc) {
+                    for (Object value : backpacksDoc.values()) {
+                        if (value instanceof Document backpackDoc) {
+                            backpacksList.add(backpackDoc);
                         }
-
-                        BackpackData backpack = new BackpackData(name, slots);
-
-                        // Deserializar icono de forma segura
-                        if (backpackDoc.containsKey("icon")) {
-                            try {
-                                String iconNbtString = backpackDoc.getString("icon");
-                                if (iconNbtString != null && !iconNbtString.isEmpty()) {
-                                    MinecraftServer server = BackpacksMod.getServer();
-                                    if (server != null) {
-                                        NbtCompound iconNbt = StringNbtReader.parse(iconNbtString);
-                                        ItemStack.CODEC.decode(server.getRegistryManager().getOps(NbtOps.INSTANCE), iconNbt)
-                                                .resultOrPartial(error -> {})
-                                                .ifPresent(pair -> backpack.setIcon(pair.getFirst()));
-                                    }
-                                }
-                            } catch (Exception iconError) {
-                                backpack.setIcon(new ItemStack(Items.CHEST));
-                            }
+                    }
+                } else if (rawBackpacks instanceof List<?> legacyList) {
+                    for (Object value : legacyList) {
+                        if (value instanceof Document backpackDoc) {
+                            backpacksList.add(backpackDoc);
                         }
+                    }
+                    // Formato antiguo: reescribir completo en el próximo guardado para migrarlo
+                    needsFullWrite = true;
+                }
 
-                        // Deserializar items de forma segura
-                        if (backpackDoc.containsKey("items")) {
-                            List<Document> items = backpackDoc.getList("items", Document.class);
-                            if (items != null) {
-                                for (Document itemDoc : items) {
-                                    try {
-                                        Integer slot = itemDoc.getInteger("slot");
-                                        String nbtString = itemDoc.getString("nbt");
-
-                                        if (slot != null && nbtString != null && !nbtString.isEmpty() &&
-                                                slot >= 0 && slot < backpack.getInventory().size()) {
-
-                                            MinecraftServer server = BackpacksMod.getServer();
-                                            if (server != null) {
-                                                NbtCompound nbt = StringNbtReader.parse(nbtString);
-                                                ItemStack.CODEC.decode(server.getRegistryManager().getOps(NbtOps.INSTANCE), nbt)
-                                                        .resultOrPartial(error -> {})
-                                                        .ifPresent(pair -> backpack.getInventory().set(slot, pair.getFirst()));
-                                            }
-                                        }
-                                    } catch (Exception itemError) {
-                                        // Skip problematic item
-                                    }
-                                }
-                            }
+                for (Document backpackDoc : backpacksList) {
+                    try {
+                        BackpackData backpack = decodeBackpack(backpackDoc);
+                        if (backpack != null) {
+                            backpacks.put(backpackDoc.getInteger("id"), backpack);
                         }
-
-                        backpacks.put(id, backpack);
-
                     } catch (Exception backpackError) {
                         BackpacksMod.LOGGER.warn("Error deserializing backpack: " + backpackError.getMessage());
                         // Skip problematic backpack
@@ -643,29 +1874,588 @@ public class MongoBackpackManager {
                 BackpacksMod.LOGGER.error("Error processing MongoDB document", e);
             }
         }
+
+        // Mochila de un documento (formato por mapa o lista antigua); null si le faltan campos
+        private static BackpackData decodeBackpack(Document backpackDoc) {
+            Integer id = backpackDoc.getInteger("id");
+            String name = backpackDoc.getString("name");
+            Integer slots = backpackDoc.getInteger("slots", ConfigManager.getConfig().backpackSlots);
+
+            if (id == null || name == null || slots == null) {
+                return null; // Skip invalid backpack
+            }
+
+            // NUEVO: Los items se guardan codificados; se decodifican al primer getInventory()
+            Map<Integer, Object> encodedItems = new HashMap<>();
+            Object rawItems = backpackDoc.get("items");
+            if (rawItems instanceof Document itemsDoc) {
+                for (Map.Entry<String, Object> itemEntry : itemsDoc.entrySet()) {
+                    try {
+                        putEncodedItem(encodedItems, slots, Integer.parseInt(itemEntry.getKey()), itemEntry.getValue());
+                    } catch (Exception itemError) {
+                        // Skip problematic item
+                    }
+                }
+            } else if (rawItems instanceof List<?> itemsList) {
+                for (Object rawItem : itemsList) {
+                    try {
+                        if (rawItem instanceof Document itemDoc && itemDoc.getInteger("slot") != null) {
+                            putEncodedItem(encodedItems, slots, itemDoc.getInteger("slot"), itemDoc);
+                        }
+                    } catch (Exception itemError) {
+                        // Skip problematic item
+                    }
+                }
+            }
+
+            BackpackData backpack = new BackpackData(name, slots, encodedItems);
+
+            // Deserializar icono de forma segura
+            if (backpackDoc.containsKey("icon")) {
+                try {
+                    ItemStack icon = decodeStack(backpackDoc.get("icon"));
+                    if (icon != null) {
+                        backpack.setIcon(icon);
+                    }
+                } catch (Exception iconError) {
+                    backpack.setIcon(new ItemStack(Items.CHEST));
+                }
+            }
+
+            backpack.clearChanges();
+            backpack.clearJournal();
+            return backpack;
+        }
+
+        private static void putEncodedItem(Map<Integer, Object> encodedItems, int slots, int slot, Object rawItem) {
+            if (slot >= 0 && slot < slots && rawItem != null) {
+                encodedItems.put(slot, rawItem);
+            }
+        }
+
+        // Un item ya en formato actual (NBT binario) se puede volver a escribir sin decodificarlo
+        private static boolean isCurrentFormat(Object rawItem) {
+            return rawItem instanceof Document itemDoc && itemDoc.get("data") instanceof Binary;
+        }
+
+        private static int encodedCount(Object rawItem) {
+            return rawItem instanceof Document itemDoc && itemDoc.get("count") instanceof Number count ? count.intValue() : 1;
+        }
+
+        // crc32 del NBT guardado de un slot (0 = vacío); en documentos antiguos, del texto SNBT
+        private static int itemHash(Object rawItem) {
+            Object payload = rawItem instanceof Document itemDoc
+                    ? (itemDoc.containsKey("data") ? itemDoc.get("data") : itemDoc.get("nbt"))
+                    : rawItem;
+
+            CRC32 crc = new CRC32();
+            if (payload instanceof Binary binary) {
+                crc.update(binary.getData());
+            } else if (payload instanceof String nbtString && !nbtString.isEmpty()) {
+                crc.update(nbtString.getBytes(StandardCharsets.UTF_8));
+            } else {
+                return 0;
+            }
+            int hash = (int) crc.getValue();
+            return hash != 0 ? hash : 1;
+        }
+
+        /**
+         * Hash de contenido de una mochila codificada (items por slot), el mismo que guarda su summary
+         */
+        static long contentHash(Document backpackDoc, int slots) {
+            int[] hashes = new int[Math.max(0, slots)];
+            if (backpackDoc.get("items") instanceof Document itemsDoc) {
+                for (Map.Entry<String, Object> entry : itemsDoc.entrySet()) {
+                    try {
+                        int slot = Integer.parseInt(entry.getKey());
+                        if (slot >= 0 && slot < hashes.length) {
+                            hashes[slot] = itemHash(entry.getValue());
+                        }
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            return BackpackData.contentHash(hashes);
+        }
+
+        // slotHashes (opcional) recibe el hash de cada slot codificado; los hashes guardados no se tocan
+        static Document encodeBackpack(int id, BackpackData backpack, int[] slotHashes) {
+            Document backpackDoc = new Document();
+            backpackDoc.put("id", id);
+            backpackDoc.put("name", backpack.getName());
+            backpackDoc.put("slots", backpack.getSlots());
+
+            Object icon = encodeIcon(backpack.getIcon());
+            if (icon != null) {
+                backpackDoc.put("icon", icon);
+            }
+
+            Document items = new Document();
+
+            // Sin decodificar: se reescriben los items tal como se leyeron
+            Map<Integer, Object> encodedItems = backpack.getReusableItems();
+            if (encodedItems != null) {
+                for (Map.Entry<Integer, Object> entry : encodedItems.entrySet()) {
+                    Document itemDoc = (Document) entry.getValue();
+                    Document copy = new Document("data", itemDoc.get("data")).append("count", encodedCount(itemDoc));
+                    if (itemDoc.containsKey(ItemPayloadCompression.DICTIONARY_FIELD)) {
+                        copy.put(ItemPayloadCompression.DICTIONARY_FIELD, itemDoc.get(ItemPayloadCompression.DICTIONARY_FIELD));
+                    }
+                    items.put(String.valueOf(entry.getKey()), copy);
+                }
+                backpackDoc.put("items", items);
+                backpackDoc.put("lastModified", System.currentTimeMillis());
+                return backpackDoc;
+            }
+
+            DefaultedList<ItemStack> inventory = backpack.getInventory();
+            for (int i = 0; i < inventory.size(); i++) {
+                Document itemDoc = encodeStack(inventory.get(i));
+                if (itemDoc != null) {
+                    items.put(String.valueOf(i), itemDoc);
+                }
+                if (slotHashes != null && i < slotHashes.length) {
+                    slotHashes[i] = itemHash(itemDoc);
+                }
+            }
+
+            backpackDoc.put("items", items);
+            backpackDoc.put("lastModified", System.currentTimeMillis());
+            return backpackDoc;
+        }
+
+        private static Object encodeIcon(ItemStack icon) {
+            if (icon == null || icon.isEmpty()) {
+                return null;
+            }
+            try {
+                Document iconDoc = encodeStack(icon, false); // El icono se guarda como Binary suelto, sin comprimir
+                return iconDoc != null ? iconDoc.get("data") : null;
+            } catch (Exception iconError) {
+                return null; // Skip icon if error
+            }
+        }
+
+        // Formato actual: NBT binario en un campo BSON Binary ("data"), sin pasar por texto SNBT
+        private static Document encodeStack(ItemStack stack) {
+            return encodeStack(stack, true);
+        }
+
+        private static Document encodeStack(ItemStack stack, boolean compress) {
+            byte[] nbt = encodeNbt(stack);
+            if (nbt == null) {
+                return null;
+            }
+            Document itemDoc = new Document();
+            if (compress) {
+                ItemPayloadCompression.putPayload(itemDoc, nbt);
+            } else {
+                itemDoc.put("data", new Binary(nbt));
+            }
+            itemDoc.put("count", stack.getCount());
+            return itemDoc;
+        }
+
+        // NBT binario del stack; null si está vacío o no se puede codificar
+        private static byte[] encodeNbt(ItemStack stack) {
+            if (stack == null || stack.isEmpty()) {
+                return null;
+            }
+
+            MinecraftServer server = BackpacksMod.getServer();
+            if (server == null) {
+                return null;
+            }
+
+            try {
+                NbtElement encoded = ItemStack.CODEC.encode(stack, server.getRegistryManager().getOps(NbtOps.INSTANCE), new NbtCompound())
+                        .resultOrPartial(error -> {})
+                        .orElse(null);
+                if (!(encoded instanceof NbtCompound compound)) {
+                    return null;
+                }
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+                NbtIo.write(compound, new DataOutputStream(bytes));
+                return bytes.toByteArray();
+            } catch (Exception itemError) {
+                return null; // Skip problematic items
+            }
+        }
+
+        // Lee tanto NBT binario (schema 2) como el SNBT en texto de documentos antiguos (schema 1)
+        private static ItemStack decodeStack(Object raw) throws Exception {
+            Object payload = raw instanceof Document itemDoc
+                    ? (itemDoc.containsKey("data") ? itemDoc.get("data") : itemDoc.get("nbt"))
+                    : raw;
+
+            NbtCompound nbt;
+            if (payload instanceof Binary binary) {
+                byte[] bytes = raw instanceof Document itemDoc ? ItemPayloadCompression.payloadBytes(itemDoc) : binary.getData();
+                nbt = NbtIo.readCompound(new DataInputStream(new ByteArrayInputStream(bytes)), NbtSizeTracker.ofUnlimitedBytes());
+            } else if (payload instanceof String nbtString && !nbtString.isEmpty()) {
+                nbt = StringNbtReader.parse(nbtString);
+            } else {
+                return null;
+            }
+
+            MinecraftServer server = BackpacksMod.getServer();
+            if (server == null) {
+                return null;
+            }
+
+            return ItemStack.CODEC.decode(server.getRegistryManager().getOps(NbtOps.INSTANCE), nbt)
+                    .resultOrPartial(error -> {})
+                    .map(pair -> pair.getFirst())
+                    .orElse(null);
+        }
+    }
+
+    // Cambios pendientes de un jugador extraídos para un guardado incremental
+    public static class PendingChanges {
+        private final boolean fullWrite;
+        private final long expectedVersion;
+        private final Set<Integer> removed = new HashSet<>();
+        private final Map<Integer, BackpackChange> changed = new HashMap<>();
+        // Hashes de slot de cada mochila escrita, calculados al codificar; solo se adoptan si la escritura se confirma
+        private final Map<Integer, int[]> writtenHashes = new HashMap<>();
+
+        private PendingChanges(boolean fullWrite, long expectedVersion) {
+            this.fullWrite = fullWrite;
+            this.expectedVersion = expectedVersion;
+        }
+
+        public boolean isFullWrite() { return fullWrite; }
+        public long getExpectedVersion() { return expectedVersion; }
+        public boolean isEmpty() { return !fullWrite && removed.isEmpty() && changed.isEmpty(); }
+    }
+
+    // Cambios de una mochila: completa, metadatos (nombre/icono) o slots concretos
+    public static class BackpackChange {
+        private final boolean whole;
+        private final boolean meta;
+        private final BitSet slots;
+
+        private BackpackChange(boolean whole, boolean meta, BitSet slots) {
+            this.whole = whole;
+            this.meta = meta;
+            this.slots = slots;
+        }
     }
 
-    // BackpackData class permanece igual...
+    // BackpackData con seguimiento de slots modificados
     public static class BackpackData {
         private String name;
-        private final DefaultedList<ItemStack> inventory;
+        // null hasta el primer getInventory(): mientras tanto los items siguen codificados en encodedItems
+        private DefaultedList<ItemStack> inventory;
         private final int slots;
         private ItemStack icon;
 
+        private final BitSet dirtySlots = new BitSet();
+        private boolean metaDirty = false;
+        private boolean newBackpack = true;
+        // Cambiada desde la última anotación en el write-ahead log (independiente del guardado)
+        private boolean journalDirty = true;
+        // Hash de cada slot tal como se guardó por última vez (0 = vacío), para el índice summary
+        private final int[] slotHashes;
+
+        // NUEVO: Items tal como vienen del documento (slot -> item codificado). Se conservan mientras el
+        // inventario decodificado no cambie, para reescribirlos sin codificar y para poder soltar el inventario
+        private Map<Integer, Object> encodedItems;
+        private boolean encodedCurrentFormat;
+        // Pantallas abiertas sobre esta mochila: el inventario solo se suelta cuando se cierra la última
+        private int openViewers = 0;
+        private int encodedUsedSlots;
+        private int encodedItemCount;
+
         public BackpackData(String name, int slots) {
             this.name = name;
             this.slots = slots;
-            this.inventory = DefaultedList.ofSize(slots, ItemStack.EMPTY);
+            this.slotHashes = new int[slots];
+            this.inventory = new TrackedInventory(this, slots);
+            this.icon = new ItemStack(Items.CHEST);
+        }
+
+        // Mochila leída del almacenamiento: los items se decodifican al primer acceso
+        private BackpackData(String name, int slots, Map<Integer, Object> encodedItems) {
+            this.name = name;
+            this.slots = slots;
+            this.slotHashes = new int[slots];
             this.icon = new ItemStack(Items.CHEST);
+            setEncodedItems(encodedItems);
+        }
+
+        private void setEncodedItems(Map<Integer, Object> items) {
+            this.encodedItems = items;
+            this.encodedCurrentFormat = true;
+            this.encodedUsedSlots = items.size();
+            this.encodedItemCount = 0;
+            Arrays.fill(slotHashes, 0);
+            for (Map.Entry<Integer, Object> entry : items.entrySet()) {
+                slotHashes[entry.getKey()] = PlayerBackpacks.itemHash(entry.getValue());
+                encodedItemCount += PlayerBackpacks.encodedCount(entry.getValue());
+                encodedCurrentFormat &= PlayerBackpacks.isCurrentFormat(entry.getValue());
+            }
         }
 
         public String getName() { return name; }
-        public void setName(String name) { this.name = name; }
-        public DefaultedList<ItemStack> getInventory() { return inventory; }
+        public void setName(String name) {
+            this.name = name;
+            markMetaDirty();
+        }
+
+        /**
+         * Inventario decodificado; la primera llamada decodifica los items de la mochila
+         */
+        public synchronized DefaultedList<ItemStack> getInventory() {
+            if (inventory == null) {
+                TrackedInventory decoded = new TrackedInventory(this, slots);
+                for (Map.Entry<Integer, Object> entry : encodedItems.entrySet()) {
+                    try {
+                        ItemStack stack = PlayerBackpacks.decodeStack(entry.getValue());
+                        if (stack != null) {
+                            decoded.setUntracked(entry.getKey(), stack);
+                        }
+                    } catch (Exception itemError) {
+                        // Skip problematic item
+                    }
+                }
+                inventory = decoded;
+                inventoriesDecoded.incrementAndGet();
+            }
+            return inventory;
+        }
+
+        public synchronized boolean isDecoded() {
+            return inventory != null;
+        }
+
+        public synchronized void openViewer() {
+            openViewers++;
+        }
+
+        public synchronized void closeViewer() {
+            if (openViewers > 0) {
+                openViewers--;
+            }
+        }
+
+        /**
+         * Vuelve a la forma codificada si el inventario no ha cambiado desde que se decodificó y no queda
+         * ninguna pantalla abierta sobre él. Quien necesite los items después debe volver a llamar a getInventory().
+         */
+        public synchronized boolean releaseInventory() {
+            if (openViewers > 0 || inventory == null || encodedItems == null || hasChanges()) {
+                return false;
+            }
+            inventory = null;
+            inventoriesReleased.incrementAndGet();
+            return true;
+        }
+
+        // Añade el NBT de cada item (sin comprimir) hasta tener limit muestras, para entrenar la compresión
+        synchronized void collectPayloads(List<byte[]> samples, int limit) {
+            if (inventory == null) {
+                for (Object rawItem : encodedItems.values()) {
+                    if (samples.size() >= limit) return;
+                    if (!PlayerBackpacks.isCurrentFormat(rawItem)) continue;
+                    try {
+                        samples.add(ItemPayloadCompression.payloadBytes((Document) rawItem));
+                    } catch (Exception ignored) {
+                        // Item ilegible: no sirve como muestra
+                    }
+                }
+                return;
+            }
+            for (ItemStack stack : inventory) {
+                if (samples.size() >= limit) return;
+                byte[] nbt = PlayerBackpacks.encodeNbt(stack);
+                if (nbt != null) {
+                    samples.add(nbt);
+                }
+            }
+        }
+
+        // Items codificados reutilizables tal cual al escribir; null si hay que codificar el inventario
+        synchronized Map<Integer, Object> getReusableItems() {
+            return encodedItems != null && encodedCurrentFormat ? encodedItems : null;
+        }
+
+        public synchronized int getUsedSlots() {
+            if (inventory == null) {
+                return encodedUsedSlots;
+            }
+            int used = 0;
+            for (ItemStack stack : inventory) {
+                if (!stack.isEmpty()) {
+                    used++;
+                }
+            }
+            return used;
+        }
+
         public int getSlots() { return slots; }
         public ItemStack getIcon() { return icon; }
         public void setIcon(ItemStack icon) {
             this.icon = icon != null ? icon.copy() : new ItemStack(Items.CHEST);
+            markMetaDirty();
+        }
+
+        private synchronized void markMetaDirty() {
+            metaDirty = true;
+            journalDirty = true;
+        }
+
+        private synchronized void markSlotDirty(TrackedInventory source, int slot) {
+            // CORREGIDO: Escritura en un inventario ya soltado: vuelve a ser el vivo (encodedItems deja de valer)
+            if (inventory == null) {
+                inventory = source;
+            }
+            dirtySlots.set(slot);
+            journalDirty = true;
+            encodedItems = null; // El inventario ya no coincide con lo leído
+        }
+
+        synchronized int[] copySlotHashes() {
+            return slotHashes.clone();
+        }
+
+        // Una escritura con estos hashes se confirmó: pasan a ser los guardados
+        synchronized void commitSlotHashes(int[] hashes) {
+            System.arraycopy(hashes, 0, slotHashes, 0, Math.min(hashes.length, slotHashes.length));
+        }
+
+        // Combina los hashes de todos los slots (los slots aún sin guardar cuentan con su último valor guardado)
+        private static long contentHash(int[] hashes) {
+            long hash = 1;
+            for (int slotHash : hashes) {
+                hash = 31 * hash + slotHash;
+            }
+            return hash;
+        }
+
+        /**
+         * Resumen para menús y estadísticas: nombre, id del item del icono, ocupación y hash del contenido
+         */
+        public synchronized BackpackSummary summarize(int id) {
+            return summarize(id, null);
+        }
+
+        // hashes: los de una escritura aún sin confirmar; null = los guardados
+        synchronized BackpackSummary summarize(int id, int[] hashes) {
+            int used = encodedUsedSlots;
+            int items = encodedItemCount;
+            if (inventory != null) {
+                used = 0;
+                items = 0;
+                for (ItemStack stack : inventory) {
+                    if (!stack.isEmpty()) {
+                        used++;
+                        items += stack.getCount();
+                    }
+                }
+            }
+            ItemStack iconStack = icon != null && !icon.isEmpty() ? icon : new ItemStack(Items.CHEST);
+            return new BackpackSummary(id, name, Registries.ITEM.getId(iconStack.getItem()).toString(),
+                    slots, used, items, contentHash(hashes != null ? hashes : slotHashes));
+        }
+
+        synchronized void markJournal() {
+            journalDirty = true;
+        }
+
+        synchronized void clearJournal() {
+            journalDirty = false;
+        }
+
+        synchronized boolean drainJournal() {
+            boolean changed = journalDirty;
+            journalDirty = false;
+            return changed;
+        }
+
+        synchronized void clearChanges() {
+            dirtySlots.clear();
+            metaDirty = false;
+            newBackpack = false;
+        }
+
+        synchronized BackpackChange drainChanges() {
+            if (!newBackpack && !metaDirty && dirtySlots.isEmpty()) {
+                return null;
+            }
+            BackpackChange change = new BackpackChange(newBackpack, metaDirty, (BitSet) dirtySlots.clone());
+            clearChanges();
+            return change;
+        }
+
+        synchronized void restoreChanges(BackpackChange change) {
+            newBackpack |= change.whole;
+            metaDirty |= change.meta;
+            dirtySlots.or(change.slots);
+        }
+
+        synchronized boolean hasChanges() {
+            return newBackpack || metaDirty || !dirtySlots.isEmpty();
+        }
+
+        // Toma del remoto todo lo que no tenga cambios locales (ni en vuelo ni posteriores)
+        synchronized void mergeRemote(BackpackData remote, BackpackChange inFlight) {
+            if (newBackpack || (inFlight != null && inFlight.whole)) {
+                return;
+            }
+
+            if (!metaDirty && (inFlight == null || !inFlight.meta)) {
+                this.name = remote.name;
+                this.icon = remote.icon;
+            }
+
+            // Ninguna de las dos decodificada: no puede haber slots modificados aquí, se toman los items codificados
+            synchronized (remote) {
+                if (inventory == null && remote.inventory == null && slots == remote.slots) {
+                    setEncodedItems(remote.encodedItems);
+                    return;
+                }
+            }
+
+            TrackedInventory tracked = (TrackedInventory) getInventory();
+            DefaultedList<ItemStack> remoteInventory = remote.getInventory();
+            int size = Math.min(tracked.size(), remoteInventory.size());
+            for (int i = 0; i < size; i++) {
+                if (!dirtySlots.get(i) && (inFlight == null || !inFlight.slots.get(i))) {
+                    tracked.setUntracked(i, remoteInventory.get(i));
+                    slotHashes[i] = remote.slotHashes[i];
+                }
+            }
+            encodedItems = null;
+        }
+    }
+
+    // Lista de items que registra qué slots se modifican
+    private static class TrackedInventory extends DefaultedList<ItemStack> {
+        private final BackpackData owner;
+
+        private TrackedInventory(BackpackData owner, int size) {
+            super(newEmptyList(size), ItemStack.EMPTY);
+            this.owner = owner;
+        }
+
+        private static List<ItemStack> newEmptyList(int size) {
+            ItemStack[] stacks = new ItemStack[size];
+            Arrays.fill(stacks, ItemStack.EMPTY);
+            return Arrays.asList(stacks);
+        }
+
+        @Override
+        public ItemStack set(int index, ItemStack element) {
+            ItemStack previous = super.set(index, element);
+            owner.markSlotDirty(this, index);
+            return previous;
+        }
+
+        private void setUntracked(int index, ItemStack element) {
+            super.set(index, element);
         }
     }
-}
\ No newline at end of file
+}
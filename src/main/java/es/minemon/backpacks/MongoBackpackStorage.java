@@ -0,0 +1,417 @@
+// NUEVO: MongoBackpackStorage.java - Backend MongoDB (multi-servidor)
+package es.minemon.backpacks;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Formato "player": un documento por jugador con todas sus mochilas en backpacks.<id>.
+ *
+ * Lee también documentos del formato "backpack" (MongoSplitBackpackStorage): los reconstruye como un
+ * documento de jugador y los marca para reescritura completa, que los pasa al formato configurado.
+ */
+public class MongoBackpackStorage implements BackpackStorage {
+    protected static final BulkWriteOptions UNORDERED_WRITES = new BulkWriteOptions().ordered(false);
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+    private static final int MIGRATION_BATCH_SIZE = 50;
+
+    // Marca de la cabecera en el formato "backpack" y campo con el jugador en cada documento de mochila
+    protected static final String LAYOUT_FIELD = "layout";
+    protected static final String SPLIT_LAYOUT = "backpack";
+    protected static final String PLAYER_FIELD = "player";
+    // Documento "backpack" cuyas mochilas no cuadran con el summary de la cabecera (escritura a medias)
+    static final String INCOMPLETE_FIELD = "incomplete";
+    // Relecturas de un cambio remoto a medias antes de esperar a la próxima escritura de ese jugador
+    private static final int REMOTE_RETRY_ATTEMPTS = 5;
+    private static final long REMOTE_RETRY_DELAY_MS = 200;
+
+    private final MongoClient mongoClient;
+    private final MongoDatabase database;
+    protected final MongoCollection<Document> collection;
+    protected final MongoCollection<Document> backpackCollection;
+    private final MongoCollection<Document> metaCollection;
+    private RemoteChangeWatcher remoteWatcher;
+
+    public MongoBackpackStorage(BackpackConfig config) {
+        mongoClient = MongoClients.create(config.mongoConnectionString);
+        database = mongoClient.getDatabase(config.databaseName);
+        collection = database.getCollection(config.collectionName);
+        backpackCollection = database.getCollection(config.collectionName + "_backpacks");
+        metaCollection = database.getCollection(config.collectionName + "_meta");
+
+        // Índices básicos (lastUpdated para el polling entre servidores)
+        collection.createIndex(new Document("_id", 1));
+        collection.createIndex(new Document("lastUpdated", 1));
+        backpackCollection.createIndex(new Document(PLAYER_FIELD, 1));
+    }
+
+    /**
+     * true si el documento guardado está en el formato de este backend
+     */
+    protected boolean isOwnLayout(Document stored) {
+        return !isSplitHeader(stored);
+    }
+
+    protected static boolean isSplitHeader(Document stored) {
+        return SPLIT_LAYOUT.equals(stored.getString(LAYOUT_FIELD));
+    }
+
+    @Override
+    public Document load(UUID playerId) {
+        return toPlayerDocument(collection.find(Filters.eq("_id", playerId.toString())).first());
+    }
+
+    // Documento de jugador completo; si está en el otro formato, con schemaVersion 0 para forzar la reescritura
+    private Document toPlayerDocument(Document stored) {
+        if (stored == null || isOwnLayout(stored)) {
+            return assembleIfSplit(stored);
+        }
+        Document doc = assembleIfSplit(stored);
+        doc.put("schemaVersion", 0);
+        return doc;
+    }
+
+    private Document assembleIfSplit(Document stored) {
+        return stored != null && isSplitHeader(stored) ? assemble(stored) : stored;
+    }
+
+    /**
+     * Documento de jugador (backpacks.<id>) a partir de una cabecera y sus documentos de mochila.
+     *
+     * CORREGIDO: La cabecera (con la versión) se escribe antes que las mochilas y sin transacción, así que
+     * se puede leer una cabecera nueva con mochilas antiguas o a medias. Se comprueba contra el summary de
+     * la cabecera y se relee una vez; si sigue sin cuadrar se devuelve marcado con INCOMPLETE_FIELD y con la
+     * versión anterior, para que nadie lo adopte como la versión nueva ni escriba encima de ella.
+     */
+    protected Document assemble(Document header) {
+        Document doc = readBackpacks(header);
+        if (matchesSummary(doc)) {
+            return doc;
+        }
+        Document reread = collection.find(Filters.eq("_id", header.get("_id"))).first();
+        if (reread != null && isSplitHeader(reread)) {
+            doc = readBackpacks(reread);
+            if (matchesSummary(doc)) {
+                return doc;
+            }
+        }
+        long version = doc.get("version") instanceof Number number ? number.longValue() : 0;
+        doc.put("version", Math.max(0, version - 1));
+        doc.put(INCOMPLETE_FIELD, true);
+        return doc;
+    }
+
+    private Document readBackpacks(Document header) {
+        Document doc = new Document(header);
+        doc.remove(LAYOUT_FIELD);
+        Document backpacks = new Document();
+        for (Document backpackDoc : backpackCollection.find(Filters.eq(PLAYER_FIELD, header.getString("_id")))) {
+            Object id = backpackDoc.get("id");
+            backpackDoc.remove("_id");
+            backpackDoc.remove(PLAYER_FIELD);
+            backpacks.put(String.valueOf(id), backpackDoc);
+        }
+        doc.put("backpacks", backpacks);
+        return doc;
+    }
+
+    // true si cada mochila coincide (nombre y hash de contenido) con su entrada del summary y no sobra ninguna
+    private static boolean matchesSummary(Document doc) {
+        Map<Integer, BackpackSummary> summaries = BackpackSummary.fromPlayerDocument(doc);
+        if (summaries == null) {
+            return true; // Sin índice fiable no hay con qué comparar
+        }
+        Document backpacks = doc.get("backpacks", Document.class);
+        if (backpacks.size() != summaries.size()) {
+            return false;
+        }
+        for (BackpackSummary summary : summaries.values()) {
+            Document backpackDoc = backpacks.get(String.valueOf(summary.id()), Document.class);
+            if (backpackDoc == null || !summary.name().equals(backpackDoc.getString("name")) ||
+                    MongoBackpackManager.PlayerBackpacks.contentHash(backpackDoc, summary.slots()) != summary.hash()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Proyección en el servidor: los items (backpacks) no viajan por la red
+    @Override
+    public Document loadSummary(UUID playerId) {
+        return collection.find(Filters.eq("_id", playerId.toString()))
+                .projection(Projections.include(SUMMARY_FIELDS))
+                .first();
+    }
+
+    @Override
+    public List<WriteResult> write(List<StorageWrite> writes) {
+        List<WriteResult> results = new ArrayList<>(Collections.nCopies(writes.size(), WriteResult.OK));
+        List<WriteModel<Document>> models = new ArrayList<>(writes.size());
+        for (StorageWrite write : writes) {
+            models.add(buildWriteModel(write));
+        }
+        bulkWrite(collection, models, results, null);
+
+        // Un reemplazo completo deja sin uso los documentos de mochila que tuviera en el formato "backpack"
+        List<String> replaced = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            if (writes.get(i).isReplacement() && results.get(i) == WriteResult.OK) {
+                replaced.add(writes.get(i).playerId().toString());
+            }
+        }
+        if (!replaced.isEmpty()) {
+            try {
+                backpackCollection.deleteMany(Filters.in(PLAYER_FIELD, replaced));
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.warn("Error removing per-backpack documents of " + replaced.size() + " players: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * bulkWrite no ordenado que marca en results las escrituras fallidas.
+     * owners: índice de la escritura de cada modelo, o null si modelos y escrituras coinciden uno a uno.
+     */
+    protected static void bulkWrite(MongoCollection<Document> target, List<WriteModel<Document>> models,
+                                    List<WriteResult> results, List<Integer> owners) {
+        if (models.isEmpty()) return;
+
+        try {
+            target.bulkWrite(models, UNORDERED_WRITES);
+        } catch (MongoBulkWriteException e) {
+            // Con escrituras no ordenadas el resto del lote se aplica; solo fallan las indicadas
+            for (BulkWriteError error : e.getWriteErrors()) {
+                int owner = owners != null ? owners.get(error.getIndex()) : error.getIndex();
+                // La versión no coincide: otro servidor escribió antes (el upsert choca con el _id)
+                results.set(owner, error.getCode() == DUPLICATE_KEY_ERROR ? WriteResult.CONFLICT : WriteResult.FAILED);
+            }
+            if (e.getWriteConcernError() != null) {
+                BackpacksMod.LOGGER.warn("Bulk save write concern error: " + e.getWriteConcernError().getMessage());
+            }
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.error("Bulk save of " + models.size() + " documents failed: " + e.getMessage());
+            if (owners == null) {
+                Collections.fill(results, WriteResult.FAILED);
+            } else {
+                for (Integer owner : owners) {
+                    results.set(owner, WriteResult.FAILED);
+                }
+            }
+        }
+    }
+
+    // El documento del jugador con la versión esperada
+    protected static Bson versionFilter(StorageWrite write) {
+        long expected = write.expectedVersion();
+        return Filters.and(Filters.eq("_id", write.playerId().toString()),
+                expected == 0
+                        ? Filters.or(Filters.exists("version", false), Filters.eq("version", 0L))
+                        : Filters.eq("version", expected));
+    }
+
+    // Escritura de un jugador: reemplazo completo o update incremental, condicionada a la versión esperada
+    private WriteModel<Document> buildWriteModel(StorageWrite write) {
+        long expected = write.expectedVersion();
+        Bson filter = versionFilter(write);
+
+        if (write.isReplacement()) {
+            Document doc = new Document(write.replacement());
+            doc.put("_id", write.playerId().toString());
+            doc.put("version", expected + 1);
+            return new ReplaceOneModel<>(filter, doc, new ReplaceOptions().upsert(true));
+        }
+
+        // Nunca aplicar rutas por id sobre un documento con el formato antiguo (lista) ni sobre una cabecera
+        Bson deltaFilter = Filters.and(filter, Filters.not(Filters.type("backpacks", BsonType.ARRAY)),
+                Filters.exists(LAYOUT_FIELD, false));
+        Document update = new Document(write.update());
+        Document set = new Document(update.get("$set", Document.class));
+        set.put("version", expected + 1);
+        update.put("$set", set);
+        return new UpdateOneModel<>(deltaFilter, update, new UpdateOptions().upsert(true));
+    }
+
+    /**
+     * Pasa al formato de este backend todos los documentos guardados en el otro. Cada jugador se reescribe
+     * completo con su versión actual como esperada: si otro servidor lo modifica a la vez se cuenta como
+     * conflicto, y lo migrará la próxima escritura completa de quien lo cargue.
+     */
+    public LayoutMigrationResult migrateLayout() {
+        int migrated = 0;
+        int conflicts = 0;
+        int failed = 0;
+        List<StorageWrite> batch = new ArrayList<>(MIGRATION_BATCH_SIZE);
+
+        try (MongoCursor<Document> cursor = collection.find().iterator()) {
+            while (cursor.hasNext() || !batch.isEmpty()) {
+                if (cursor.hasNext()) {
+                    Document stored = cursor.next();
+                    if (isOwnLayout(stored)) {
+                        continue;
+                    }
+                    UUID playerId;
+                    try {
+                        playerId = UUID.fromString(stored.getString("_id"));
+                    } catch (Exception e) {
+                        failed++;
+                        continue;
+                    }
+                    long version = stored.get("version") instanceof Number number ? number.longValue() : 0;
+                    Document doc = assembleIfSplit(stored);
+                    if (doc.containsKey(INCOMPLETE_FIELD)) {
+                        failed++; // Escritura a medias de otro servidor: se migra en otra pasada
+                        continue;
+                    }
+                    doc.remove("_id");
+                    doc.remove("version");
+                    batch.add(new StorageWrite(playerId, version, doc, null));
+                    if (batch.size() < MIGRATION_BATCH_SIZE && cursor.hasNext()) {
+                        continue;
+                    }
+                }
+
+                for (WriteResult result : write(batch)) {
+                    switch (result) {
+                        case OK -> migrated++;
+                        case CONFLICT -> conflicts++;
+                        case FAILED -> failed++;
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        BackpacksMod.LOGGER.info("Backpack layout migration to '" + getLayoutName() + "': " + migrated +
+                " migrated, " + conflicts + " conflicts, " + failed + " failed");
+        return new LayoutMigrationResult(migrated, conflicts, failed);
+    }
+
+    public record LayoutMigrationResult(int migrated, int conflicts, int failed) {}
+
+    public String getLayoutName() {
+        return "player";
+    }
+
+    @Override
+    public Document loadMeta(String key) {
+        return metaCollection.find(Filters.eq("_id", key)).first();
+    }
+
+    @Override
+    public void saveMeta(String key, Document value) {
+        Document doc = new Document(value);
+        doc.put("_id", key);
+        metaCollection.replaceOne(Filters.eq("_id", key), doc, new ReplaceOptions().upsert(true));
+    }
+
+    @Override
+    public void ping() {
+        database.runCommand(new Document("ping", 1));
+    }
+
+    @Override
+    public void delete(UUID playerId) {
+        collection.deleteOne(Filters.eq("_id", playerId.toString()));
+        backpackCollection.deleteMany(Filters.eq(PLAYER_FIELD, playerId.toString()));
+    }
+
+    @Override
+    public void forEach(Consumer<Document> consumer) {
+        try (MongoCursor<Document> cursor = collection.find().iterator()) {
+            while (cursor.hasNext()) {
+                consumer.accept(assembleIfSplit(cursor.next()));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void watchRemoteChanges(String serverId, long pollIntervalMs, BiConsumer<UUID, Document> listener) {
+        if (remoteWatcher != null) {
+            remoteWatcher.stop();
+        }
+        // Cada escritura toca el documento del jugador (o su cabecera): basta con vigilar esa colección
+        remoteWatcher = new RemoteChangeWatcher(collection, serverId, pollIntervalMs,
+                (playerId, doc) -> deliverRemoteChange(playerId, doc, listener, 0));
+        remoteWatcher.start();
+    }
+
+    /**
+     * Entrega un cambio remoto ya montado. Si sus mochilas aún no están escritas (cabecera nueva, mochilas
+     * antiguas) se relee más tarde en lugar de entregarlo; si el otro servidor no llega a escribirlas, su
+     * reintento avanza la cabecera otra vez y vuelve a avisar.
+     */
+    private void deliverRemoteChange(UUID playerId, Document stored, BiConsumer<UUID, Document> listener, int attempt) {
+        Document doc = toPlayerDocument(stored);
+        if (doc == null || !doc.containsKey(INCOMPLETE_FIELD)) {
+            listener.accept(playerId, doc);
+            return;
+        }
+        if (attempt >= REMOTE_RETRY_ATTEMPTS) {
+            BackpacksMod.LOGGER.warn("Remote change for " + playerId + " still incomplete after " + attempt +
+                    " reads, waiting for its next write");
+            return;
+        }
+        try {
+            BackpackScheduler.schedule(BackpackScheduler.Lane.HOUSEKEEPING, () -> {
+                try {
+                    Document reread = collection.find(Filters.eq("_id", playerId.toString())).first();
+                    deliverRemoteChange(playerId, reread, listener, attempt + 1);
+                } catch (Exception e) {
+                    BackpacksMod.LOGGER.warn("Error re-reading remote change for " + playerId + ": " + e.getMessage());
+                }
+            }, REMOTE_RETRY_DELAY_MS * (attempt + 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            BackpacksMod.LOGGER.warn("Could not schedule re-read of remote change for " + playerId);
+        }
+    }
+
+    @Override
+    public String getRemoteWatchMode() {
+        RemoteChangeWatcher watcher = remoteWatcher;
+        if (watcher == null) {
+            return "disabled";
+        }
+        return watcher.isPolling() ? "polling" : "change streams";
+    }
+
+    @Override
+    public String getName() {
+        return "MongoDB";
+    }
+
+    @Override
+    public synchronized void close() {
+        if (remoteWatcher != null) {
+            remoteWatcher.stop();
+            remoteWatcher = null;
+        }
+        mongoClient.close();
+    }
+}
@@ -0,0 +1,72 @@
+// NUEVO: MongoChangeSource.java - Cambios de la colección de jugadores para RemoteChangeWatcher
+package es.minemon.backpacks;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change streams de MongoDB (con el documento completo) y, sin replica set, consultas por lastUpdated
+ */
+public class MongoChangeSource implements RemoteChangeWatcher.ChangeSource {
+    private final MongoCollection<Document> collection;
+
+    public MongoChangeSource(MongoCollection<Document> collection) {
+        this.collection = collection;
+    }
+
+    @Override
+    public RemoteChangeWatcher.ChangeStream openStream(BsonDocument resumeToken) {
+        var stream = collection.watch(List.of(Aggregates.match(
+                        Filters.in("operationType", "insert", "update", "replace", "delete"))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(1, TimeUnit.SECONDS);
+        if (resumeToken != null) {
+            stream = stream.resumeAfter(resumeToken);
+        }
+
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor();
+        return new RemoteChangeWatcher.ChangeStream() {
+            @Override
+            public RemoteChangeWatcher.RemoteChange tryNext() {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change == null) {
+                    return null;
+                }
+                Object documentId = change.getDocumentKey() != null ? change.getDocumentKey().get("_id") : null;
+                return new RemoteChangeWatcher.RemoteChange(documentId, change.getFullDocument(),
+                        change.getOperationType() == OperationType.DELETE);
+            }
+
+            @Override
+            public BsonDocument getResumeToken() {
+                return cursor.getResumeToken();
+            }
+
+            @Override
+            public void close() {
+                cursor.close();
+            }
+        };
+    }
+
+    @Override
+    public List<Document> findChangedSince(long since, String excludedServerId) {
+        return collection.find(Filters.and(
+                        Filters.gt("lastUpdated", since),
+                        Filters.ne("serverId", excludedServerId)))
+                .sort(Sorts.ascending("lastUpdated"))
+                .into(new ArrayList<>());
+    }
+}
@@ -0,0 +1,203 @@
+// NUEVO: MongoSplitBackpackStorage.java - Backend MongoDB con un documento por mochila
+package es.minemon.backpacks;
+
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato "backpack": por jugador una cabecera pequeña en la colección principal (version, summary,
+ * schemaVersion, serverId, lastUpdated) y un documento por mochila en <colección>_backpacks con
+ * _id "uuid:id". Ningún documento se acerca al límite de 16 MB y un cambio en una mochila solo
+ * reescribe esa mochila.
+ *
+ * La versión del jugador sigue en la cabecera: se actualiza primero (condicionada a la versión esperada)
+ * y solo si lo consigue se escriben las mochilas. Si esa segunda parte falla, la escritura se da por
+ * fallida; el reintento choca con la versión ya avanzada y el merge de conflicto reescribe los cambios.
+ * Mientras tanto la cabecera nueva no cuadra con las mochilas: assemble lo detecta con el summary y no
+ * entrega ese documento como la versión nueva (MongoBackpackStorage.assemble).
+ */
+public class MongoSplitBackpackStorage extends MongoBackpackStorage {
+
+    public MongoSplitBackpackStorage(BackpackConfig config) {
+        super(config);
+    }
+
+    @Override
+    protected boolean isOwnLayout(Document stored) {
+        return isSplitHeader(stored);
+    }
+
+    @Override
+    public List<WriteResult> write(List<StorageWrite> writes) {
+        List<WriteResult> results = new ArrayList<>(Collections.nCopies(writes.size(), WriteResult.OK));
+
+        List<WriteModel<Document>> headerModels = new ArrayList<>(writes.size());
+        for (StorageWrite write : writes) {
+            headerModels.add(buildHeaderModel(write));
+        }
+        bulkWrite(collection, headerModels, results, null);
+
+        // Mochilas solo de los jugadores cuya cabecera se escribió
+        List<WriteModel<Document>> backpackModels = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i++) {
+            if (results.get(i) != WriteResult.OK) continue;
+            try {
+                for (WriteModel<Document> model : buildBackpackModels(writes.get(i))) {
+                    backpackModels.add(model);
+                    owners.add(i);
+                }
+            } catch (Exception e) {
+                BackpacksMod.LOGGER.error("Error preparing backpack documents for " + writes.get(i).playerId() + ": " + e.getMessage());
+                results.set(i, WriteResult.FAILED);
+            }
+        }
+        bulkWrite(backpackCollection, backpackModels, results, owners);
+        return results;
+    }
+
+    private WriteModel<Document> buildHeaderModel(StorageWrite write) {
+        long expected = write.expectedVersion();
+
+        if (write.isReplacement()) {
+            Document header = new Document(write.replacement());
+            header.remove("backpacks");
+            header.put("_id", write.playerId().toString());
+            header.put(LAYOUT_FIELD, SPLIT_LAYOUT);
+            header.put("version", expected + 1);
+            return new ReplaceOneModel<>(versionFilter(write), header, new ReplaceOptions().upsert(true));
+        }
+
+        Document set = new Document();
+        Document unset = new Document();
+        splitPaths(write.update().get("$set", Document.class), set, null);
+        splitPaths(write.update().get("$unset", Document.class), unset, null);
+        set.put("version", expected + 1);
+
+        // Solo sobre cabeceras: un documento de jugador completo necesita antes una reescritura (conflicto)
+        Document update = new Document("$set", set);
+        if (!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return new UpdateOneModel<>(Filters.and(versionFilter(write), Filters.eq(LAYOUT_FIELD, SPLIT_LAYOUT)),
+                update, new UpdateOptions().upsert(true));
+    }
+
+    private List<WriteModel<Document>> buildBackpackModels(StorageWrite write) {
+        String playerId = write.playerId().toString();
+        List<WriteModel<Document>> models = new ArrayList<>();
+
+        if (write.isReplacement()) {
+            List<String> kept = new ArrayList<>();
+            Object rawBackpacks = write.replacement().get("backpacks");
+            if (rawBackpacks instanceof Document backpacks) {
+                for (Object value : backpacks.values()) {
+                    if (value instanceof Document backpackDoc && backpackDoc.get("id") != null) {
+                        String id = backpackId(playerId, backpackDoc.get("id"));
+                        kept.add(id);
+                        models.add(new ReplaceOneModel<>(Filters.eq("_id", id), toBackpackDocument(playerId, id, backpackDoc),
+                                new ReplaceOptions().upsert(true)));
+                    }
+                }
+            }
+            // Mochilas que ya no existen
+            models.add(new DeleteManyModel<>(Filters.and(Filters.eq(PLAYER_FIELD, playerId), Filters.nin("_id", kept))));
+            return models;
+        }
+
+        // backpacks.<id>[.ruta] -> operaciones sobre el documento "uuid:id"
+        Map<String, Document> sets = new HashMap<>();
+        Map<String, Document> unsets = new HashMap<>();
+        splitPaths(write.update().get("$set", Document.class), null, sets);
+        splitPaths(write.update().get("$unset", Document.class), null, unsets);
+
+        for (Map.Entry<String, Document> entry : sets.entrySet()) {
+            String backpackId = entry.getKey();
+            String id = backpackId(playerId, backpackId);
+            Document fields = entry.getValue();
+
+            if (fields.containsKey("")) {
+                // Mochila completa (nueva o reescrita)
+                models.add(new ReplaceOneModel<>(Filters.eq("_id", id),
+                        toBackpackDocument(playerId, id, (Document) fields.get("")), new ReplaceOptions().upsert(true)));
+                continue;
+            }
+
+            Document update = new Document("$set", fields.append(PLAYER_FIELD, playerId));
+            Document unset = unsets.remove(backpackId);
+            if (unset != null) {
+                update.put("$unset", unset);
+            }
+            models.add(new UpdateOneModel<>(Filters.eq("_id", id), update, new UpdateOptions().upsert(true)));
+        }
+
+        for (Map.Entry<String, Document> entry : unsets.entrySet()) {
+            String id = backpackId(playerId, entry.getKey());
+            if (entry.getValue().containsKey("")) {
+                models.add(new DeleteOneModel<>(Filters.eq("_id", id))); // Mochila eliminada
+            } else {
+                models.add(new UpdateOneModel<>(Filters.eq("_id", id), new Document("$unset", entry.getValue())));
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Reparte las rutas de un $set/$unset: las de cabecera van a header y las backpacks.<id>[.ruta] a
+     * perBackpack[id] con la ruta relativa ("" = la mochila entera)
+     */
+    private static void splitPaths(Document paths, Document header, Map<String, Document> perBackpack) {
+        if (paths == null) return;
+
+        for (Map.Entry<String, Object> entry : paths.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith("backpacks.")) {
+                if (header != null) {
+                    header.put(key, entry.getValue());
+                }
+                continue;
+            }
+            if (perBackpack == null) continue;
+
+            String rest = key.substring("backpacks.".length());
+            int dot = rest.indexOf('.');
+            String backpackId = dot < 0 ? rest : rest.substring(0, dot);
+            String path = dot < 0 ? "" : rest.substring(dot + 1);
+            perBackpack.computeIfAbsent(backpackId, id -> new Document()).put(path, entry.getValue());
+        }
+    }
+
+    private static String backpackId(String playerId, Object backpackId) {
+        return playerId + ":" + backpackId;
+    }
+
+    private static Document toBackpackDocument(String playerId, String id, Document backpackDoc) {
+        Document doc = new Document(backpackDoc);
+        doc.put("_id", id);
+        doc.put(PLAYER_FIELD, playerId);
+        return doc;
+    }
+
+    @Override
+    public String getLayoutName() {
+        return SPLIT_LAYOUT;
+    }
+
+    @Override
+    public String getName() {
+        return "MongoDB (per-backpack documents)";
+    }
+}
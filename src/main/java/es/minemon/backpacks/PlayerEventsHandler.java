@@ -1,10 +1,15 @@
 package es.minemon.backpacks;
 
+import com.mojang.authlib.GameProfile;
+import es.minemon.backpacks.mixin.ServerLoginNetworkHandlerAccessor;
+import net.fabricmc.fabric.api.networking.v1.ServerLoginConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.minecraft.server.network.ServerPlayerEntity;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.Set;
 import java.util.UUID;
 
@@ -15,68 +20,72 @@ public class PlayerEventsHandler {
     private static final Set<UUID> defaultBackpacksProcessed = ConcurrentHashMap.newKeySet();
 
     public static void register() {
-        // Evento de conexión optimizado
+        // NUEVO: Precarga durante el login - las mochilas se piden a la base de datos antes del JOIN
+        ServerLoginConnectionEvents.QUERY_START.register((handler, server, sender, synchronizer) -> {
+            GameProfile profile = ((ServerLoginNetworkHandlerAccessor) handler).getProfile();
+            if (profile != null && profile.getId() != null && BackpacksMod.getMongoManager() != null) {
+                BackpacksMod.getMongoManager().prefetchPlayer(profile.getId());
+            }
+        });
+
+        // Login cancelado o fallido: la precarga se queda como entrada normal de cache
+        ServerLoginConnectionEvents.DISCONNECT.register((handler, server) -> {
+            GameProfile profile = ((ServerLoginNetworkHandlerAccessor) handler).getProfile();
+            if (profile != null && profile.getId() != null && BackpacksMod.getMongoManager() != null &&
+                    server.getPlayerManager().getPlayer(profile.getId()) == null) {
+                BackpacksMod.getMongoManager().releasePlayerSession(profile.getId());
+            }
+        });
+
+        // Evento de conexión: sin esperas fijas, todo se encadena a la carga de datos del jugador
         ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
             ServerPlayerEntity player = handler.getPlayer();
             UUID playerId = player.getUuid();
 
-            CompletableFuture.runAsync(() -> {
-                try {
-                    // Espera inicial para estabilización
-                    Thread.sleep(1000);
-
-                    // Cargar datos del jugador
-                    BackpackManager.onPlayerJoin(player);
+            try {
+                // CORREGIDO: Dos tareas separadas en la cola del hilo principal; en una avalancha de entradas
+                // se reparten entre ticks en lugar de ejecutarse todas en el mismo
+                BackpackManager.onPlayerJoin(player).whenComplete((backpacks, throwable) -> {
+                    // NUEVO: Datos sin cargar (almacenamiento caído): nada de entregas hasta que se recarguen
+                    if (backpacks != null && backpacks.isLocked()) {
+                        MainThreadTaskQueue.post(() -> {
+                            if (!player.isDisconnected()) {
+                                LanguageManager.sendMessage(player, "storageUnavailable");
+                            }
+                        });
+                        return;
+                    }
 
                     // Mochilas por defecto (solo una vez)
-                    if (!defaultBackpacksProcessed.contains(playerId)) {
-                        defaultBackpacksProcessed.add(playerId);
-
-                        Thread.sleep(500);
-                        if (BackpacksMod.getServer() != null) {
-                            BackpacksMod.getServer().execute(() -> {
-                                try {
-                                    DefaultBackpackManager.giveDefaultBackpacks(player);
-                                } catch (Exception e) {
-                                    // Error silencioso
-                                }
-                            });
+                    MainThreadTaskQueue.post(() -> {
+                        if (!player.isDisconnected() && defaultBackpacksProcessed.add(playerId)) {
+                            try {
+                                DefaultBackpackManager.giveDefaultBackpacks(player);
+                            } catch (Exception e) {
+                                // Error silencioso
+                            }
                         }
-                    }
+                    });
 
-                    // Actualización VIP (solo una vez)
-                    if (!vipUpdateInProgress.contains(playerId)) {
-                        vipUpdateInProgress.add(playerId);
-
-                        Thread.sleep(1000); // Esperar LuckPerms
-                        if (BackpacksMod.getServer() != null) {
-                            BackpacksMod.getServer().execute(() -> {
-                                try {
-                                    VipBackpackManager.updatePlayerVipBackpacks(player);
-                                } catch (Exception e) {
-                                    // Error silencioso
-                                } finally {
-                                    // Limpiar después de 30 segundos
-                                    CompletableFuture.runAsync(() -> {
-                                        try {
-                                            Thread.sleep(30000);
-                                        } catch (InterruptedException ie) {
-                                            Thread.currentThread().interrupt();
-                                        } finally {
-                                            vipUpdateInProgress.remove(playerId);
-                                        }
-                                    });
-                                }
-                            });
+                    // Actualización VIP (solo una vez); LuckPerms carga al usuario durante el login
+                    MainThreadTaskQueue.post(() -> {
+                        if (!player.isDisconnected() && vipUpdateInProgress.add(playerId)) {
+                            try {
+                                VipBackpackManager.updatePlayerVipBackpacks(player);
+                            } catch (Exception e) {
+                                // Error silencioso
+                            } finally {
+                                // Limpiar después de 30 segundos
+                                delayed(30).execute(() -> vipUpdateInProgress.remove(playerId));
+                            }
                         }
-                    }
-
-                } catch (Exception e) {
-                    // Limpiar en caso de error
-                    vipUpdateInProgress.remove(playerId);
-                    defaultBackpacksProcessed.remove(playerId);
-                }
-            });
+                    });
+                });
+            } catch (Exception e) {
+                // Limpiar en caso de error
+                vipUpdateInProgress.remove(playerId);
+                defaultBackpacksProcessed.remove(playerId);
+            }
         });
 
         // Evento de desconexión optimizado
@@ -98,16 +107,30 @@ public class PlayerEventsHandler {
                 } catch (Exception e) {
                     // Error silencioso
                 }
-            });
+            }, BackpackScheduler.executor(BackpackScheduler.Lane.HOUSEKEEPING));
         });
     }
 
+    /**
+     * Los datos del jugador se han recargado al volver el almacenamiento: hacer las entregas pendientes
+     * de la entrada (en el hilo del servidor)
+     */
+    public static void onBackpacksUnlocked(UUID playerId) {
+        if (BackpacksMod.getServer() == null) return;
+        ServerPlayerEntity player = BackpacksMod.getServer().getPlayerManager().getPlayer(playerId);
+        if (player == null) return;
+
+        LanguageManager.sendMessage(player, "storageRecovered");
+        forceGiveDefaultBackpacks(player);
+        forceVipUpdate(player);
+    }
+
     // Métodos de utilidad simplificados
     public static void forceVipUpdate(ServerPlayerEntity player) {
         UUID playerId = player.getUuid();
         vipUpdateInProgress.remove(playerId);
 
-        CompletableFuture.runAsync(() -> {
+        MainThreadTaskQueue.post(() -> {
             if (!vipUpdateInProgress.contains(playerId)) {
                 vipUpdateInProgress.add(playerId);
                 try {
@@ -125,27 +148,24 @@ public class PlayerEventsHandler {
         UUID playerId = player.getUuid();
         defaultBackpacksProcessed.remove(playerId);
 
-        CompletableFuture.runAsync(() -> {
+        MainThreadTaskQueue.post(() -> {
             if (!defaultBackpacksProcessed.contains(playerId)) {
                 defaultBackpacksProcessed.add(playerId);
                 try {
                     DefaultBackpackManager.giveDefaultBackpacks(player);
                 } finally {
                     // Permitir dar más tarde después de 10 segundos
-                    CompletableFuture.runAsync(() -> {
-                        try {
-                            Thread.sleep(10000);
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                        } finally {
-                            defaultBackpacksProcessed.remove(playerId);
-                        }
-                    });
+                    delayed(10).execute(() -> defaultBackpacksProcessed.remove(playerId));
                 }
             }
         });
     }
 
+    // Ejecución diferida sin ocupar un hilo durmiendo
+    private static Executor delayed(long seconds) {
+        return task -> BackpackScheduler.schedule(BackpackScheduler.Lane.HOUSEKEEPING, task, seconds, TimeUnit.SECONDS);
+    }
+
     // Métodos de estado simplificados
     public static boolean isVipUpdateInProgress(UUID playerId) {
         return vipUpdateInProgress.contains(playerId);
@@ -0,0 +1,246 @@
+// NUEVO: RemoteChangeWatcher.java - Invalidación de cache entre servidores
+package es.minemon.backpacks;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Escucha los documentos de jugadores escritos por OTROS servidores y avisa al listener
+ * (documento completo, o null si se borró). Usa change streams si MongoDB es un replica set;
+ * si no, consulta periódicamente por lastUpdated.
+ *
+ * Los cambios se leen de un ChangeSource (MongoChangeSource sobre la colección en producción), así que
+ * se puede probar con un doble sin MongoDB o apuntarse a cualquier mongod local.
+ */
+public class RemoteChangeWatcher {
+
+    /**
+     * De dónde salen los cambios
+     */
+    public interface ChangeSource {
+        // Lanza MongoException con código 40573 si el servidor no admite change streams (no es replica set)
+        ChangeStream openStream(BsonDocument resumeToken);
+
+        // Documentos escritos por otros servidores con lastUpdated > since, de más antiguo a más nuevo
+        List<Document> findChangedSince(long since, String excludedServerId);
+    }
+
+    public interface ChangeStream extends AutoCloseable {
+        // Siguiente cambio, o null si no llegó ninguno durante la espera
+        RemoteChange tryNext();
+
+        BsonDocument getResumeToken();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Un cambio del stream: documentId es el _id del documento; document es null en los borrados
+     * (o si ya no existía al buscarlo)
+     */
+    public record RemoteChange(Object documentId, Document document, boolean deleted) {
+    }
+
+    // "The $changeStream stage is only supported on replica sets"
+    private static final int CHANGE_STREAM_NOT_SUPPORTED = 40573;
+    // Margen para relojes desincronizados entre servidores (los duplicados se descartan por versión)
+    private static final long POLL_CLOCK_MARGIN_MS = 5000;
+
+    private final ChangeSource source;
+    private final String serverId;
+    private final long pollIntervalMs;
+    private final BiConsumer<UUID, Document> listener;
+
+    private volatile boolean running = false;
+    private volatile boolean polling = false;
+    private volatile ChangeStream activeStream;
+    // Último resume token: al reconectar se continúa sin perder eventos tras un error transitorio
+    private volatile BsonDocument resumeToken;
+    // Marca de tiempo del último documento leído en modo polling
+    private volatile long pollSince;
+    // Reconexión diferida del stream o tarea periódica de polling
+    private ScheduledFuture<?> scheduledTask;
+
+    public RemoteChangeWatcher(MongoCollection<Document> collection, String serverId, long pollIntervalMs,
+                               BiConsumer<UUID, Document> listener) {
+        this(new MongoChangeSource(collection), serverId, pollIntervalMs, listener);
+    }
+
+    public RemoteChangeWatcher(ChangeSource source, String serverId, long pollIntervalMs,
+                               BiConsumer<UUID, Document> listener) {
+        this.source = source;
+        this.serverId = serverId;
+        this.pollIntervalMs = pollIntervalMs;
+        this.listener = listener;
+    }
+
+    /**
+     * CORREGIDO: Sin hilo propio. El cursor del change stream ocupa el carril CHANGE_WATCH del BackpackScheduler
+     * (visible en sus métricas) y el polling es una tarea periódica del carril HOUSEKEEPING.
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        submitStream(0);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        ChangeStream stream = activeStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (Exception ignored) {
+            }
+        }
+        if (scheduledTask != null) {
+            scheduledTask.cancel(false);
+            scheduledTask = null;
+        }
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    private synchronized void submitStream(long delayMs) {
+        if (!running) return;
+        try {
+            if (delayMs > 0) {
+                scheduledTask = BackpackScheduler.schedule(BackpackScheduler.Lane.CHANGE_WATCH, this::runStream,
+                        delayMs, TimeUnit.MILLISECONDS);
+            } else {
+                BackpackScheduler.execute(BackpackScheduler.Lane.CHANGE_WATCH, this::runStream);
+            }
+        } catch (RejectedExecutionException e) {
+            BackpacksMod.LOGGER.warn("Could not start change stream watcher: " + e.getMessage());
+        }
+    }
+
+    private synchronized void startPolling() {
+        if (!running) return;
+        polling = true;
+        pollSince = System.currentTimeMillis() - POLL_CLOCK_MARGIN_MS;
+        try {
+            scheduledTask = BackpackScheduler.scheduleAtFixedRate(BackpackScheduler.Lane.HOUSEKEEPING, this::pollOnce,
+                    pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            BackpacksMod.LOGGER.warn("Could not start remote change polling: " + e.getMessage());
+        }
+    }
+
+    private void runStream() {
+        try {
+            watchChangeStream();
+        } catch (MongoException e) {
+            if (!running) return;
+            if (e.getCode() == CHANGE_STREAM_NOT_SUPPORTED) {
+                BackpacksMod.LOGGER.info("MongoDB is not a replica set, cross-server sync will poll every " +
+                        pollIntervalMs + "ms");
+                startPolling();
+            } else {
+                BackpacksMod.LOGGER.warn("Change stream interrupted, reconnecting: " + e.getMessage());
+                submitStream(pollIntervalMs);
+            }
+        } catch (RuntimeException e) {
+            // stop() cierra el cursor desde otro hilo: lo que lance después no es un error
+            if (!running) return;
+            BackpacksMod.LOGGER.warn("Change stream failed, reconnecting: " + e.getMessage());
+            submitStream(pollIntervalMs);
+        }
+    }
+
+    // Lee cambios hasta que se pare el watcher (tryNext espera como mucho el maxAwaitTime del cursor)
+    private void watchChangeStream() {
+        try (ChangeStream stream = source.openStream(resumeToken)) {
+            activeStream = stream;
+            BackpacksMod.LOGGER.info("Cross-server sync using MongoDB change streams");
+
+            while (running) {
+                RemoteChange change = stream.tryNext();
+                if (stream.getResumeToken() != null) {
+                    resumeToken = stream.getResumeToken();
+                }
+                if (change != null) {
+                    handleChange(change);
+                }
+            }
+        } finally {
+            activeStream = null;
+        }
+    }
+
+    private void handleChange(RemoteChange change) {
+        UUID playerId = parsePlayerId(change.documentId());
+        if (playerId == null) return;
+
+        if (change.deleted()) {
+            notifyListener(playerId, null);
+            return;
+        }
+
+        Document doc = change.document();
+        // Con updateLookup el documento puede no existir ya (borrado justo después)
+        if (doc == null || serverId.equals(doc.getString("serverId"))) {
+            return;
+        }
+        notifyListener(playerId, doc);
+    }
+
+    private void pollOnce() {
+        if (!running) return;
+        long since = pollSince;
+        try {
+            long newest = since;
+            for (Document doc : source.findChangedSince(since, serverId)) {
+                if (!running) break;
+                UUID playerId = parsePlayerId(doc.get("_id"));
+                if (playerId != null) {
+                    notifyListener(playerId, doc);
+                }
+                Number lastUpdated = doc.get("lastUpdated", Number.class);
+                if (lastUpdated != null) {
+                    newest = Math.max(newest, lastUpdated.longValue());
+                }
+            }
+            // Retroceder el margen: los documentos repetidos no cambian nada (misma versión)
+            pollSince = Math.max(since, Math.min(newest, System.currentTimeMillis() - POLL_CLOCK_MARGIN_MS));
+        } catch (Exception e) {
+            if (running) {
+                BackpacksMod.LOGGER.warn("Error polling remote backpack changes: " + e.getMessage());
+            }
+        }
+    }
+
+    private void notifyListener(UUID playerId, Document doc) {
+        try {
+            listener.accept(playerId, doc);
+        } catch (Exception e) {
+            BackpacksMod.LOGGER.warn("Error applying remote change for " + playerId + ": " + e.getMessage());
+        }
+    }
+
+    private static UUID parsePlayerId(Object rawId) {
+        try {
+            if (rawId instanceof BsonValue bson && bson.isString()) {
+                return UUID.fromString(bson.asString().getValue());
+            }
+            if (rawId instanceof String id) {
+                return UUID.fromString(id);
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        return null;
+    }
+}
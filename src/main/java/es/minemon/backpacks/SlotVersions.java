@@ -0,0 +1,54 @@
+// NUEVO: SlotVersions.java - Versión del último delta aplicado a cada slot de una pantalla
+package es.minemon.backpacks;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Los deltas de una mochila llevan conjuntos de slots distintos y pueden llegar desordenados (el lane SYNC
+ * tiene varios hilos). Descartar un delta entero por ser más antiguo que el último perdería sus slots; en su
+ * lugar cada slot recuerda la versión que lo escribió y solo acepta versiones más nuevas.
+ *
+ * Se usa desde el hilo del servidor (syncInventory de las pantallas): no es thread-safe.
+ */
+public class SlotVersions {
+    private long[] versions;
+
+    public SlotVersions(int size) {
+        this.versions = new long[Math.max(0, size)];
+    }
+
+    /**
+     * true si version es más nueva que la que escribió el slot (y la registra); false si ya lo escribió un delta posterior
+     */
+    public boolean advance(int slot, long version) {
+        if (slot < 0) {
+            return false;
+        }
+        if (slot >= versions.length) {
+            versions = Arrays.copyOf(versions, slot + 1);
+        }
+        if (version <= versions[slot]) {
+            return false;
+        }
+        versions[slot] = version;
+        return true;
+    }
+
+    /**
+     * Slots del delta que hay que aplicar: los que no ha escrito ya un delta más nuevo
+     */
+    public BitSet accept(BitSet slots, long version) {
+        BitSet accepted = new BitSet();
+        for (int i = slots.nextSetBit(0); i >= 0; i = slots.nextSetBit(i + 1)) {
+            if (advance(i, version)) {
+                accepted.set(i);
+            }
+        }
+        return accepted;
+    }
+
+    public long getVersion(int slot) {
+        return slot >= 0 && slot < versions.length ? versions[slot] : 0;
+    }
+}
@@ -0,0 +1,68 @@
+// NUEVO: StorageOperationGate.java - Límite de operaciones concurrentes contra el almacenamiento
+package es.minemon.backpacks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Permisos para operaciones de almacenamiento (cargas y lotes de guardado).
+ *
+ * Con hilos de plataforma (blocking = false) se espera como mucho el timeout: un hilo del carril no puede
+ * quedarse bloqueado y quien llama usa su alternativa (copia en cache, reintento del lote).
+ * Con hilos virtuales (blocking = true) los permisos son el pool de conexiones de MongoDB y se espera sin
+ * límite: esperar no ocupa un hilo de plataforma y la operación nunca se sustituye por una copia bloqueada.
+ */
+public class StorageOperationGate {
+    private final int permits;
+    private final boolean blocking;
+    private final Semaphore semaphore;
+    private final AtomicInteger active = new AtomicInteger(0);
+
+    public StorageOperationGate(int permits, boolean blocking) {
+        this.permits = permits;
+        this.blocking = blocking;
+        this.semaphore = new Semaphore(permits);
+    }
+
+    /**
+     * true si se obtuvo permiso (hay que llamar a exit). En modo bloqueante ignora el timeout y siempre entra.
+     */
+    public boolean enter(long timeout, TimeUnit unit) throws InterruptedException {
+        if (blocking) {
+            semaphore.acquire();
+        } else if (!semaphore.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        active.incrementAndGet();
+        return true;
+    }
+
+    public void exit() {
+        active.decrementAndGet();
+        semaphore.release();
+    }
+
+    /**
+     * Espera a que terminen las operaciones en curso reuniendo todos los permisos (cierre)
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!semaphore.tryAcquire(permits, timeout, unit)) {
+            return false;
+        }
+        semaphore.release(permits);
+        return true;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public int getActive() {
+        return active.get();
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+}
@@ -0,0 +1,15 @@
+package es.minemon.backpacks.mixin;
+
+import com.mojang.authlib.GameProfile;
+import net.minecraft.server.network.ServerLoginNetworkHandler;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+/**
+ * Perfil del jugador durante el login, para empezar a cargar sus mochilas antes del JOIN
+ */
+@Mixin(ServerLoginNetworkHandler.class)
+public interface ServerLoginNetworkHandlerAccessor {
+	@Accessor("profile")
+	GameProfile getProfile();
+}
@@ -0,0 +1,164 @@
+package es.minemon.backpacks;
+
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Benchmark de logins simultáneos: throughput y latencia de cola de la carga de sesión con hilos de plataforma
+ * y con hilos virtuales (useVirtualThreads).
+ *
+ * Cada login hace lo mismo que MongoBackpackManager.loadFromStorage: tarea en el carril IO_LOAD, permiso del
+ * StorageOperationGate y storage.load. El almacenamiento es un doble con latencia fija y un pool de conexiones
+ * limitado, como el driver de MongoDB.
+ *
+ * Uso: ./gradlew joinBenchmark [--args="joins latencyMs poolSize"] (por defecto 500 20 100).
+ * Necesita JDK 21 (la tarea usa esa toolchain) y siempre mide los dos modos en la misma ejecución, tras una
+ * ronda de calentamiento de cada uno: compara solo resultados de la misma máquina y la misma ejecución.
+ */
+public class JoinLoadBenchmark {
+
+    private static final long LOAD_TIMEOUT_SECONDS = 5; // El mismo que loadFromStorage
+
+    /**
+     * Almacenamiento simulado: cada load ocupa una conexión del pool durante latencyMs
+     */
+    private static class SlowStorage implements BackpackStorage {
+        private final long latencyMs;
+        private final Semaphore connections;
+
+        SlowStorage(long latencyMs, int poolSize) {
+            this.latencyMs = latencyMs;
+            this.connections = new Semaphore(poolSize);
+        }
+
+        @Override
+        public Document load(UUID playerId) throws Exception {
+            connections.acquire();
+            try {
+                Thread.sleep(latencyMs);
+                return new Document("_id", playerId.toString()).append("version", 1L);
+            } finally {
+                connections.release();
+            }
+        }
+
+        @Override
+        public List<WriteResult> write(List<StorageWrite> writes) {
+            List<WriteResult> results = new ArrayList<>(writes.size());
+            for (int i = 0; i < writes.size(); i++) {
+                results.add(WriteResult.OK);
+            }
+            return results;
+        }
+
+        @Override
+        public void delete(UUID playerId) {
+        }
+
+        @Override
+        public void forEach(Consumer<Document> consumer) {
+        }
+
+        @Override
+        public String getName() {
+            return "simulated";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private record Result(String mode, int joins, int loaded, int fallbacks, int rejected, long wallNanos, long[] latencies) {
+
+        private double percentileMs(double percentile) {
+            if (latencies.length == 0) return 0;
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1_000_000.0;
+        }
+
+        private void print() {
+            double seconds = wallNanos / 1_000_000_000.0;
+            System.out.printf("%-9s %d joins: %d loaded, %d cache fallbacks, %d rejected | %.0f joins/s | " +
+                            "p50 %.1fms p99 %.1fms max %.1fms%n",
+                    mode, joins, loaded, fallbacks, rejected, loaded / seconds,
+                    percentileMs(0.50), percentileMs(0.99), percentileMs(1.0));
+        }
+    }
+
+    private static Result run(boolean virtual, int joins, BackpackStorage storage, int poolSize) throws InterruptedException {
+        // Mismos valores que MongoBackpackManager: 20 permisos con timeout, o el pool sin timeout
+        StorageOperationGate gate = new StorageOperationGate(virtual ? poolSize : 20, virtual);
+        Executor executor = BackpackScheduler.newLaneExecutor(BackpackScheduler.Lane.IO_LOAD, virtual);
+
+        long[] latencies = new long[joins];
+        AtomicInteger loaded = new AtomicInteger();
+        AtomicInteger fallbacks = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(joins);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < joins; i++) {
+            int join = i;
+            long submitted = System.nanoTime();
+            try {
+                executor.execute(() -> {
+                    try {
+                        if (gate.enter(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                            try {
+                                storage.load(UUID.randomUUID());
+                                latencies[join] = System.nanoTime() - submitted;
+                                loaded.incrementAndGet();
+                            } finally {
+                                gate.exit();
+                            }
+                        } else {
+                            fallbacks.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        fallbacks.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Cola del carril llena: el login se queda sin datos hasta reintentar
+                rejected.incrementAndGet();
+                done.countDown();
+            }
+        }
+        done.await();
+        long wall = System.nanoTime() - start;
+
+        long[] completed = Arrays.stream(latencies).filter(latency -> latency > 0).sorted().toArray();
+        return new Result(virtual ? "virtual" : "platform", joins, loaded.get(), fallbacks.get(), rejected.get(),
+                wall, completed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int joins = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        System.out.printf("%d concurrent joins, %dms per load, %d pooled connections%n", joins, latencyMs, poolSize);
+        SlowStorage storage = new SlowStorage(latencyMs, poolSize);
+
+        // Calentamiento (JIT y creación de hilos) antes de medir
+        run(false, joins, storage, poolSize);
+        run(true, joins, storage, poolSize);
+
+        run(false, joins, storage, poolSize).print();
+        run(true, joins, storage, poolSize).print();
+    }
+}
@@ -0,0 +1,223 @@
+package es.minemon.backpacks;
+
+import com.mongodb.MongoException;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteChangeWatcherTest {
+
+    private static final String LOCAL_SERVER = "server-a";
+    private static final String OTHER_SERVER = "server-b";
+    private static final long WAIT_MS = 5000;
+
+    private RemoteChangeWatcher watcher;
+
+    @AfterEach
+    void stopWatcher() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    /**
+     * Doble de MongoDB: un change stream alimentado desde el test o, si no hay replica set, una "colección"
+     * consultada por lastUpdated como hace MongoChangeSource
+     */
+    private static class FakeChangeSource implements RemoteChangeWatcher.ChangeSource {
+        private final boolean replicaSet;
+        private final BlockingQueue<RemoteChangeWatcher.RemoteChange> events = new LinkedBlockingQueue<>();
+        private final List<Document> collection = new CopyOnWriteArrayList<>();
+
+        FakeChangeSource(boolean replicaSet) {
+            this.replicaSet = replicaSet;
+        }
+
+        void write(Document doc) {
+            collection.removeIf(existing -> existing.get("_id").equals(doc.get("_id")));
+            collection.add(doc);
+            events.add(new RemoteChangeWatcher.RemoteChange(doc.get("_id"), doc, false));
+        }
+
+        void delete(String id) {
+            collection.removeIf(existing -> existing.get("_id").equals(id));
+            events.add(new RemoteChangeWatcher.RemoteChange(id, null, true));
+        }
+
+        @Override
+        public RemoteChangeWatcher.ChangeStream openStream(BsonDocument resumeToken) {
+            if (!replicaSet) {
+                throw new MongoException(40573, "The $changeStream stage is only supported on replica sets");
+            }
+            return new RemoteChangeWatcher.ChangeStream() {
+                @Override
+                public RemoteChangeWatcher.RemoteChange tryNext() {
+                    try {
+                        return events.poll(50, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+
+                @Override
+                public BsonDocument getResumeToken() {
+                    return null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public List<Document> findChangedSince(long since, String excludedServerId) {
+            List<Document> found = new ArrayList<>();
+            for (Document doc : collection) {
+                if (doc.getLong("lastUpdated") > since && !excludedServerId.equals(doc.getString("serverId"))) {
+                    found.add(doc);
+                }
+            }
+            found.sort((a, b) -> Long.compare(a.getLong("lastUpdated"), b.getLong("lastUpdated")));
+            return found;
+        }
+    }
+
+    private static Document playerDocument(UUID playerId, String serverId, long version) {
+        return new Document("_id", playerId.toString())
+                .append("serverId", serverId)
+                .append("version", version)
+                .append("lastUpdated", System.currentTimeMillis());
+    }
+
+    /**
+     * Cache de prueba con la misma regla que MongoBackpackManager.onRemoteChange: solo versiones más nuevas
+     */
+    private static class VersionedCache {
+        private final Map<UUID, Long> versions = new ConcurrentHashMap<>();
+
+        void put(UUID playerId, long version) {
+            versions.put(playerId, version);
+        }
+
+        void onRemoteChange(UUID playerId, Document doc) {
+            if (doc == null) {
+                versions.remove(playerId);
+                return;
+            }
+            long remoteVersion = doc.get("version", Number.class).longValue();
+            versions.computeIfPresent(playerId, (id, cached) -> Math.max(cached, remoteVersion));
+        }
+
+        Long version(UUID playerId) {
+            return versions.get(playerId);
+        }
+    }
+
+    private static void awaitCondition(String description, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for: " + description);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void changeStreamPatchesCachedEntryWrittenByOtherServer() throws Exception {
+        FakeChangeSource source = new FakeChangeSource(true);
+        VersionedCache cache = new VersionedCache();
+        UUID playerId = UUID.randomUUID();
+        cache.put(playerId, 1);
+
+        watcher = new RemoteChangeWatcher(source, LOCAL_SERVER, 50, cache::onRemoteChange);
+        watcher.start();
+
+        source.write(playerDocument(playerId, OTHER_SERVER, 2));
+        awaitCondition("cached entry patched to version 2", () -> Long.valueOf(2).equals(cache.version(playerId)));
+        assertFalse(watcher.isPolling());
+    }
+
+    @Test
+    void changeStreamIgnoresOwnWrites() throws Exception {
+        FakeChangeSource source = new FakeChangeSource(true);
+        List<UUID> notified = new CopyOnWriteArrayList<>();
+        UUID own = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+
+        watcher = new RemoteChangeWatcher(source, LOCAL_SERVER, 50, (playerId, doc) -> notified.add(playerId));
+        watcher.start();
+
+        source.write(playerDocument(own, LOCAL_SERVER, 5));
+        source.write(playerDocument(other, OTHER_SERVER, 5));
+        awaitCondition("other server's write delivered", () -> notified.contains(other));
+        assertFalse(notified.contains(own), "writes from this server must not be delivered");
+    }
+
+    @Test
+    void changeStreamDeliversDeletesAsNull() throws Exception {
+        FakeChangeSource source = new FakeChangeSource(true);
+        VersionedCache cache = new VersionedCache();
+        UUID playerId = UUID.randomUUID();
+        cache.put(playerId, 3);
+
+        watcher = new RemoteChangeWatcher(source, LOCAL_SERVER, 50, cache::onRemoteChange);
+        watcher.start();
+
+        source.delete(playerId.toString());
+        awaitCondition("cached entry removed", () -> cache.version(playerId) == null);
+    }
+
+    @Test
+    void fallsBackToPollingWithoutReplicaSet() throws Exception {
+        FakeChangeSource source = new FakeChangeSource(false);
+        VersionedCache cache = new VersionedCache();
+        UUID playerId = UUID.randomUUID();
+        UUID ownPlayer = UUID.randomUUID();
+        cache.put(playerId, 1);
+        cache.put(ownPlayer, 1);
+
+        watcher = new RemoteChangeWatcher(source, LOCAL_SERVER, 50, cache::onRemoteChange);
+        watcher.start();
+        awaitCondition("watcher switched to polling", watcher::isPolling);
+
+        source.write(playerDocument(ownPlayer, LOCAL_SERVER, 9));
+        source.write(playerDocument(playerId, OTHER_SERVER, 4));
+        awaitCondition("cached entry patched by polling", () -> Long.valueOf(4).equals(cache.version(playerId)));
+        assertEquals(1L, cache.version(ownPlayer), "own writes must not be picked up by polling");
+    }
+
+    @Test
+    void staleRemoteVersionDoesNotDowngradeCache() throws Exception {
+        FakeChangeSource source = new FakeChangeSource(true);
+        VersionedCache cache = new VersionedCache();
+        UUID playerId = UUID.randomUUID();
+        UUID marker = UUID.randomUUID();
+        cache.put(playerId, 7);
+        cache.put(marker, 0);
+
+        watcher = new RemoteChangeWatcher(source, LOCAL_SERVER, 50, cache::onRemoteChange);
+        watcher.start();
+
+        source.write(playerDocument(playerId, OTHER_SERVER, 6));
+        source.write(playerDocument(marker, OTHER_SERVER, 1));
+        awaitCondition("events processed", () -> Long.valueOf(1).equals(cache.version(marker)));
+        assertEquals(7L, cache.version(playerId));
+    }
+}
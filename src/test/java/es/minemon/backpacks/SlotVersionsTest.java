@@ -0,0 +1,72 @@
+package es.minemon.backpacks;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlotVersionsTest {
+
+    private static BitSet slots(int... indices) {
+        BitSet bits = new BitSet();
+        for (int index : indices) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    // Aplica un delta a una "pantalla" igual que syncInventory: solo los slots aceptados
+    private static void apply(SlotVersions versions, String[] screen, BitSet changed, long version, String value) {
+        BitSet accepted = versions.accept(changed, version);
+        for (int i = accepted.nextSetBit(0); i >= 0; i = accepted.nextSetBit(i + 1)) {
+            screen[i] = value + "@" + version;
+        }
+    }
+
+    @Test
+    void deltasDeliveredInReverseOrderKeepEverySlot() {
+        SlotVersions versions = new SlotVersions(9);
+        String[] screen = new String[9];
+
+        // v2 (slots 1 y 2) llega antes que v1 (slots 0 y 1)
+        apply(versions, screen, slots(1, 2), 2, "new");
+        apply(versions, screen, slots(0, 1), 1, "old");
+
+        assertEquals("old@1", screen[0], "slot only in the older delta must still be applied");
+        assertEquals("new@2", screen[1], "slot written by the newer delta must not be overwritten");
+        assertEquals("new@2", screen[2]);
+        assertNull(screen[3]);
+    }
+
+    @Test
+    void deltasDeliveredInOrderApplyNormally() {
+        SlotVersions versions = new SlotVersions(9);
+        String[] screen = new String[9];
+
+        apply(versions, screen, slots(0, 1), 1, "old");
+        apply(versions, screen, slots(1, 2), 2, "new");
+
+        assertEquals("old@1", screen[0]);
+        assertEquals("new@2", screen[1]);
+        assertEquals("new@2", screen[2]);
+    }
+
+    @Test
+    void duplicateDeltaIsIgnored() {
+        SlotVersions versions = new SlotVersions(9);
+
+        assertEquals(slots(4), versions.accept(slots(4), 3));
+        assertTrue(versions.accept(slots(4), 3).isEmpty());
+        assertEquals(3, versions.getVersion(4));
+    }
+
+    @Test
+    void growsForSlotsBeyondInitialSize() {
+        SlotVersions versions = new SlotVersions(0);
+
+        assertTrue(versions.advance(53, 1));
+        assertFalse(versions.advance(53, 1));
+        assertFalse(versions.advance(-1, 1));
+    }
+}